@@ -3,6 +3,7 @@ package es.boopurno.gravestones;
 import com.mojang.logging.LogUtils;
 import es.boopurno.gravestones.block.GravestoneBlock;
 import es.boopurno.gravestones.block.entity.GravestoneBlockEntity;
+import es.boopurno.gravestones.config.DeathSettings;
 import es.boopurno.gravestones.init.ModItems;
 import es.boopurno.gravestones.integration.ModIntegration;
 import es.boopurno.gravestones.menu.GravestoneMenu;
@@ -95,6 +96,7 @@ public class Gravestones {
         event.enqueueWork(() -> {
             PacketHandler.register();
             ModIntegration.init();
+            DeathSettings.rebuild();
         });
     }
 
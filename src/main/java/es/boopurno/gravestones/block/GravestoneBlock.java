@@ -2,8 +2,14 @@ package es.boopurno.gravestones.block;
 
 import es.boopurno.gravestones.Gravestones;
 import es.boopurno.gravestones.block.entity.GravestoneBlockEntity;
+import es.boopurno.gravestones.config.GravestoneConfig;
+import es.boopurno.gravestones.death.DeathSnapshot;
+import es.boopurno.gravestones.grave.GraveRecord;
+import es.boopurno.gravestones.grave.GraveRegistry;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.tags.FluidTags;
 import net.minecraft.world.InteractionHand;
@@ -22,6 +28,8 @@ import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.block.state.StateDefinition;
 import net.minecraft.world.level.block.state.properties.BlockStateProperties;
 import net.minecraft.world.level.block.state.properties.BooleanProperty;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.levelgen.Heightmap;
 import net.minecraft.world.level.material.FluidState;
 import net.minecraft.world.level.material.Fluids;
 import net.minecraft.world.phys.BlockHitResult;
@@ -33,15 +41,36 @@ import net.minecraftforge.network.NetworkHooks;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Map;
+
 public class GravestoneBlock extends HorizontalDirectionalBlock implements EntityBlock, SimpleWaterloggedBlock {
     public static final VoxelShape SHAPE = makeShape();
+    public static final VoxelShape COLLISION_SHAPE = makeCollisionShape();
     public static final BooleanProperty WATERLOGGED = BlockStateProperties.WATERLOGGED;
 
+    private static final int SURFACE_FALLBACK_SCAN_DEPTH = 24;
+    private static final int MAX_SAFE_POSITION_DISTANCE = 48;
+
+    private static long skippedUnloadedCandidates = 0;
+
+    // Baked once per state: rotating SHAPE means rebuilding a 14-box union, far too slow for collision queries
+    private final Map<BlockState, VoxelShape> shapes;
+    private final Map<BlockState, VoxelShape> collisionShapes;
+    private final Map<BlockState, VoxelShape> occlusionShapes;
+    private final Map<BlockState, VoxelShape> interactionShapes;
+
     public GravestoneBlock(Properties properties) {
         super(properties);
         this.registerDefaultState(this.stateDefinition.any()
                 .setValue(FACING, Direction.NORTH)
                 .setValue(WATERLOGGED, Boolean.FALSE));
+
+        this.shapes = this.getShapeForEachState(state -> rotateShape(Direction.NORTH, state.getValue(FACING), SHAPE));
+        this.collisionShapes = this.getShapeForEachState(
+                state -> rotateShape(Direction.NORTH, state.getValue(FACING), COLLISION_SHAPE));
+        // No face of the gravestone is full, so it can never hide a neighbouring face
+        this.occlusionShapes = this.getShapeForEachState(state -> Shapes.empty());
+        this.interactionShapes = this.getShapeForEachState(this.shapes::get);
     }
 
     public static VoxelShape makeShape() {
@@ -64,6 +93,16 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
         return shape;
     }
 
+    /**
+     * Coarse stand-in for {@link #SHAPE} used for entity collision: the base slab
+     * and the headstone, instead of the 14 boxes of the detailed outline.
+     */
+    public static VoxelShape makeCollisionShape() {
+        return Shapes.or(
+                Shapes.box(0.125, 0, 0.0625, 0.875, 0.125, 0.9375),
+                Shapes.box(0.1875, 0.125, 0.75, 0.8125, 0.875, 0.875));
+    }
+
     public static VoxelShape rotateShape(Direction from, Direction to, VoxelShape shape) {
         VoxelShape[] buffer = new VoxelShape[] { shape, Shapes.empty() };
 
@@ -80,13 +119,23 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
 
     @Override
     public VoxelShape getShape(BlockState pState, BlockGetter pLevel, BlockPos pPos, CollisionContext pContext) {
-        return switch (pState.getValue(FACING)) {
-            case NORTH -> SHAPE;
-            case SOUTH -> rotateShape(Direction.NORTH, Direction.SOUTH, SHAPE);
-            case WEST -> rotateShape(Direction.NORTH, Direction.WEST, SHAPE);
-            case EAST -> rotateShape(Direction.NORTH, Direction.EAST, SHAPE);
-            default -> SHAPE;
-        };
+        return this.shapes.get(pState);
+    }
+
+    @Override
+    public VoxelShape getCollisionShape(BlockState pState, BlockGetter pLevel, BlockPos pPos,
+            CollisionContext pContext) {
+        return this.collisionShapes.get(pState);
+    }
+
+    @Override
+    public VoxelShape getOcclusionShape(BlockState pState, BlockGetter pLevel, BlockPos pPos) {
+        return this.occlusionShapes.get(pState);
+    }
+
+    @Override
+    public VoxelShape getInteractionShape(BlockState pState, BlockGetter pLevel, BlockPos pPos) {
+        return this.interactionShapes.get(pState);
     }
 
     @Nullable
@@ -115,7 +164,7 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
         if (!pLevel.isClientSide()) {
             BlockEntity blockEntity = pLevel.getBlockEntity(pPos);
             if (blockEntity instanceof GravestoneBlockEntity gravestoneBE) {
-                NetworkHooks.openScreen((ServerPlayer) pPlayer, gravestoneBE, pPos);
+                NetworkHooks.openScreen((ServerPlayer) pPlayer, gravestoneBE, gravestoneBE::writeMenuData);
                 return InteractionResult.CONSUME;
             }
         }
@@ -141,41 +190,136 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
             BlockEntity blockEntity = pLevel.getBlockEntity(pPos);
             if (blockEntity instanceof GravestoneBlockEntity gravestoneBE) {
                 gravestoneBE.dropAllItems(pLevel, pPos);
+                gravestoneBE.onGraveRemoved();
             }
             super.onRemove(pState, pLevel, pPos, pNewState, pIsMoving);
         }
     }
 
-    public void placeWithInventoryAndName(Level level, BlockPos pos, Player player, String ownerName) {
+    @Override
+    public boolean hasAnalogOutputSignal(@NotNull BlockState pState) {
+        return true;
+    }
+
+    @Override
+    public int getAnalogOutputSignal(@NotNull BlockState pState, Level pLevel, @NotNull BlockPos pPos) {
+        if (pLevel.getBlockEntity(pPos) instanceof GravestoneBlockEntity gravestoneBE) {
+            return gravestoneBE.getComparatorSignal();
+        }
+        return 0;
+    }
+
+    /**
+     * Places a gravestone holding the snapshot's items near where the player died,
+     * or merges them into one of the player's recent gravestones close by.
+     *
+     * @return where the items went, or null if they were dropped instead
+     */
+    @Nullable
+    public BlockPos placeFromSnapshot(Level level, DeathSnapshot snapshot) {
         if (level.isClientSide) {
-            return;
+            return null;
         }
 
-        BlockPos validPos = findValidGravestonePosition(level, pos);
+        GravestoneBlockEntity mergeTarget = findMergeTarget((ServerLevel) level, snapshot);
+        if (mergeTarget != null && mergeTarget.mergeDeath(snapshot)) {
+            Gravestones.LOGGER.debug("Merged death of {} at {} into gravestone {} at {}", snapshot.getOwnerName(),
+                    snapshot.getDeathPos(), mergeTarget.getGraveId(), mergeTarget.getBlockPos());
+            return mergeTarget.getBlockPos();
+        }
+
+        BlockPos pos = snapshot.getDeathPos();
+        BlockPos validPos = findGravestonePosition(level, snapshot);
         if (validPos == null) {
-            Gravestones.LOGGER.error("Could not find valid position for gravestone near {}. Dropping items instead.",
-                    pos);
-            player.getInventory().dropAll();
-            return;
+            Gravestones.LOGGER.error("Could not find valid position for gravestone near {}. Dropping items instead. "
+                    + "({} unloaded candidates skipped so far)", pos, skippedUnloadedCandidates);
+            snapshot.dropAll(level, pos);
+            return null;
         }
 
-        Direction placementDirection = player.getDirection().getOpposite();
         FluidState fluidstate = level.getFluidState(validPos);
         BlockState graveState = this.defaultBlockState()
-                .setValue(FACING, placementDirection)
+                .setValue(FACING, snapshot.getFacing())
                 .setValue(WATERLOGGED, fluidstate.is(FluidTags.WATER) && fluidstate.getAmount() == 8);
 
         level.setBlock(validPos, graveState, 3);
         BlockEntity blockEntity = level.getBlockEntity(validPos);
         if (blockEntity instanceof GravestoneBlockEntity gravestoneBE) {
-            gravestoneBE.setItemsOnDeath(player.getInventory());
-            gravestoneBE.setOwnerName(ownerName);
-            Gravestones.LOGGER.debug("GravestoneBlockEntity populated for {} at {}", ownerName, validPos);
-        } else {
-            Gravestones.LOGGER.error(
-                    "Failed to get GravestoneBlockEntity after placing gravestone at {}. Inventory NOT saved to grave.",
+            // One save mark and one block update for the contents and the owner name together
+            try (GravestoneBlockEntity.Edit edit = gravestoneBE.edit()) {
+                gravestoneBE.setItemsOnDeath(snapshot);
+                gravestoneBE.setOwnerName(snapshot.getOwnerName());
+            }
+            Gravestones.LOGGER.debug("GravestoneBlockEntity populated for {} at {}", snapshot.getOwnerName(),
                     validPos);
+            return validPos;
+        }
+
+        Gravestones.LOGGER.error(
+                "Failed to get GravestoneBlockEntity after placing gravestone at {}. Dropping items instead.",
+                validPos);
+        snapshot.dropAll(level, validPos);
+        return null;
+    }
+
+    /**
+     * The nearest loaded gravestone of the same player within
+     * {@link GravestoneConfig#MERGE_RADIUS} that was placed or merged into within
+     * {@link GravestoneConfig#MERGE_WINDOW_MINUTES}, looked up through the
+     * registry's per-owner index rather than by scanning blocks.
+     */
+    @Nullable
+    private GravestoneBlockEntity findMergeTarget(ServerLevel level, DeathSnapshot snapshot) {
+        int radius = GravestoneConfig.MERGE_RADIUS.get();
+        if (radius <= 0) {
+            return null;
+        }
+
+        long window = GravestoneConfig.MERGE_WINDOW_MINUTES.get() * 1200L;
+        long now = level.getGameTime();
+        BlockPos deathPos = snapshot.getDeathPos();
+        GravestoneBlockEntity nearest = null;
+        int nearestDistance = Integer.MAX_VALUE;
+
+        for (GraveRecord record : GraveRegistry.get(level.getServer()).getByOwner(snapshot.getOwnerId())) {
+            BlockPos gravePos = record.getPos();
+            int distance = deathPos.distManhattan(gravePos);
+            if (!record.getDimension().equals(level.dimension()) || distance >= nearestDistance
+                    || (window > 0 && now - record.getCreatedAt() > window)
+                    || Math.abs(gravePos.getX() - deathPos.getX()) > radius
+                    || Math.abs(gravePos.getY() - deathPos.getY()) > radius
+                    || Math.abs(gravePos.getZ() - deathPos.getZ()) > radius
+                    || !level.isLoaded(gravePos)) {
+                continue;
+            }
+            if (level.getBlockEntity(gravePos) instanceof GravestoneBlockEntity grave
+                    && grave.getGraveId() == record.getId()) {
+                nearest = grave;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    private BlockPos findGravestonePosition(Level level, DeathSnapshot snapshot) {
+        BlockPos deathPos = snapshot.getDeathPos();
+        if (isValidGravestonePosition(level, deathPos)) {
+            return deathPos;
+        }
+
+        // Where the player last stood is almost always a valid spot, and is far cheaper than a search
+        for (long packedPos : snapshot.getSafePositions()) {
+            BlockPos safePos = BlockPos.of(packedPos);
+            if (Math.abs(safePos.getX() - deathPos.getX()) <= MAX_SAFE_POSITION_DISTANCE
+                    && Math.abs(safePos.getZ() - deathPos.getZ()) <= MAX_SAFE_POSITION_DISTANCE
+                    && isValidGravestonePosition(level, safePos)) {
+                Gravestones.LOGGER.debug("Using last safe position {} for gravestone (death at {})", safePos,
+                        deathPos);
+                return safePos;
+            }
         }
+
+        return findValidGravestonePosition(level, deathPos);
     }
 
     private BlockPos findValidGravestonePosition(Level level, BlockPos originalPos) {
@@ -198,10 +342,15 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
                         continue;
                     }
 
+                    LevelChunk chunk = getSearchChunk(level, searchCenter.getX() + x, searchCenter.getZ() + z);
+                    if (chunk == null) {
+                        continue;
+                    }
+
                     // Check both at same Y level and within a reasonable Y range
                     for (int yOffset = -2; yOffset <= 5; yOffset++) {
                         BlockPos testPos = searchCenter.offset(x, yOffset, z);
-                        if (isValidGravestonePosition(level, testPos)) {
+                        if (isValidGravestonePosition(level, chunk, testPos)) {
                             Gravestones.LOGGER.debug(
                                     "Found valid gravestone position at {} (offset from original death at {})",
                                     testPos, originalPos);
@@ -231,9 +380,10 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
         }
 
         if (originalY > maxY - 5) {
-            for (int y = maxY - 5; y >= minY; y--) {
+            LevelChunk chunk = getSearchChunk(level, originalPos.getX(), originalPos.getZ());
+            for (int y = maxY - 5; chunk != null && y >= minY; y--) {
                 BlockPos testPos = new BlockPos(originalPos.getX(), y, originalPos.getZ());
-                if (level.getBlockState(testPos.below()).isSolidRender(level, testPos.below())) {
+                if (chunk.getBlockState(testPos.below()).isSolidRender(level, testPos.below())) {
                     return testPos;
                 }
             }
@@ -255,19 +405,9 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
                         continue;
                     }
 
-                    int testX = x + xOffset;
-                    int testZ = z + zOffset;
-
-                    for (int y = maxY - 1; y >= minY; y--) {
-                        BlockPos testPos = new BlockPos(testX, y, testZ);
-                        BlockState blockState = level.getBlockState(testPos);
-
-                        if (blockState.isSolidRender(level, testPos)) {
-                            BlockPos gravePos = testPos.above();
-                            if (gravePos.getY() < maxY && isValidGravestonePosition(level, gravePos)) {
-                                return gravePos;
-                            }
-                        }
+                    BlockPos gravePos = findSurfaceInColumn(level, x + xOffset, z + zOffset, minY, maxY);
+                    if (gravePos != null) {
+                        return gravePos;
                     }
                 }
             }
@@ -276,25 +416,70 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
         return null;
     }
 
+    private BlockPos findSurfaceInColumn(Level level, int x, int z, int minY, int maxY) {
+        LevelChunk chunk = getSearchChunk(level, x, z);
+        if (chunk == null) {
+            return null;
+        }
+
+        // Heightmaps hold the Y of the topmost matching block; the grave goes one above it
+        int motionBlockingY = chunk.getHeight(Heightmap.Types.MOTION_BLOCKING, x, z) + 1;
+        if (motionBlockingY <= minY) {
+            // Nothing in this column at all, e.g. the void below the End islands
+            return null;
+        }
+
+        if (motionBlockingY < maxY) {
+            BlockPos candidate = new BlockPos(x, motionBlockingY, z);
+            if (isValidGravestonePosition(level, chunk, candidate)) {
+                return candidate;
+            }
+        }
+
+        int worldSurfaceY = chunk.getHeight(Heightmap.Types.WORLD_SURFACE, x, z) + 1;
+        if (worldSurfaceY != motionBlockingY && worldSurfaceY < maxY) {
+            BlockPos candidate = new BlockPos(x, worldSurfaceY, z);
+            if (isValidGravestonePosition(level, chunk, candidate)) {
+                return candidate;
+            }
+        }
+
+        // The top of the column is not usable (lava, leaves, glass...), so only scan a little below it
+        int lowestY = Math.max(minY + 1, motionBlockingY - SURFACE_FALLBACK_SCAN_DEPTH);
+        for (int y = Math.min(motionBlockingY, maxY) - 1; y >= lowestY; y--) {
+            BlockPos candidate = new BlockPos(x, y, z);
+            if (isValidGravestonePosition(level, chunk, candidate)) {
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
     private boolean isValidGravestonePosition(Level level, BlockPos pos) {
+        LevelChunk chunk = getSearchChunk(level, pos.getX(), pos.getZ());
+        return chunk != null && isValidGravestonePosition(level, chunk, pos);
+    }
+
+    private boolean isValidGravestonePosition(Level level, LevelChunk chunk, BlockPos pos) {
         if (!level.isInWorldBounds(pos)) {
             return false;
         }
 
-        BlockState blockState = level.getBlockState(pos);
+        BlockState blockState = chunk.getBlockState(pos);
 
         if (!blockState.canBeReplaced()) {
             return false;
         }
 
         BlockPos belowPos = pos.below();
-        BlockState belowState = level.getBlockState(belowPos);
+        BlockState belowState = chunk.getBlockState(belowPos);
 
-        if (!belowState.isSolidRender(level, belowPos) && !level.getFluidState(belowPos).is(FluidTags.WATER)) {
+        if (!belowState.isSolidRender(level, belowPos) && !chunk.getFluidState(belowPos).is(FluidTags.WATER)) {
             return false;
         }
 
-        FluidState fluidState = level.getFluidState(pos);
+        FluidState fluidState = chunk.getFluidState(pos);
         if (!fluidState.isEmpty() && !fluidState.is(FluidTags.WATER)) {
             return false;
         }
@@ -302,6 +487,35 @@ public class GravestoneBlock extends HorizontalDirectionalBlock implements Entit
         return true;
     }
 
+    /**
+     * Returns the chunk holding the given column for the placement search. When
+     * only loaded chunks may be searched, unloaded columns are skipped (and
+     * counted) rather than being loaded or generated synchronously.
+     */
+    @Nullable
+    private static LevelChunk getSearchChunk(Level level, int blockX, int blockZ) {
+        int chunkX = SectionPos.blockToSectionCoord(blockX);
+        int chunkZ = SectionPos.blockToSectionCoord(blockZ);
+
+        if (!GravestoneConfig.SEARCH_LOADED_CHUNKS_ONLY.get()) {
+            return level.getChunk(chunkX, chunkZ);
+        }
+
+        LevelChunk chunk = level.getChunkSource().getChunkNow(chunkX, chunkZ);
+        if (chunk == null) {
+            skippedUnloadedCandidates++;
+        }
+        return chunk;
+    }
+
+    /**
+     * Candidate columns the placement search skipped because their chunk was not
+     * loaded, counted for as long as the game has been running.
+     */
+    public static long getSkippedUnloadedCandidates() {
+        return skippedUnloadedCandidates;
+    }
+
     @Override
     public FluidState getFluidState(BlockState pState) {
         return pState.getValue(WATERLOGGED) ? Fluids.WATER.getSource(false) : super.getFluidState(pState);
@@ -0,0 +1,174 @@
+package es.boopurno.gravestones.block.entity;
+
+import es.boopurno.gravestones.config.GravestoneConfig;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.Level;
+import net.minecraftforge.items.IItemHandler;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The {@code ITEM_HANDLER} capability a gravestone hands to hoppers and pipes.
+ * <p>
+ * Instead of the grave's full 41-69 slots, automation only sees the occupied
+ * ones: slot {@code i} of this view is the {@code i}-th occupied grave slot,
+ * looked up in an index rebuilt from the occupancy bitmap only when a slot
+ * fills or empties. An empty grave reports no slots at all, so pollers find
+ * nothing to scan. A grave that has not been decoded yet reports its saved
+ * occupied slot count, and is only decoded once automation reads or takes a
+ * stack. Insertion is always refused; extraction follows
+ * {@link GravestoneConfig#AUTOMATION_ACCESS} and can be capped with
+ * {@link GravestoneConfig#AUTOMATION_STACKS_PER_TICK} to a number of distinct
+ * grave slots per tick.
+ */
+final class GraveAutomationHandler implements IItemHandler {
+    private final GravestoneBlockEntity grave;
+
+    private int[] index = new int[0];
+    private int indexSize;
+    private GraveItemHandler indexedHandler;
+    private int indexedVersion;
+
+    private long accessTick = Long.MIN_VALUE;
+    private boolean accessAllowed;
+    private final IntOpenHashSet extractedThisTick = new IntOpenHashSet();
+
+    GraveAutomationHandler(GravestoneBlockEntity grave) {
+        this.grave = grave;
+    }
+
+    /**
+     * Decodes the grave if needed and brings the index up to date with it.
+     */
+    private GraveItemHandler handler() {
+        GraveItemHandler handler = this.grave.getDecodedItemHandler();
+        refreshIndex(handler);
+        return handler;
+    }
+
+    private void refreshIndex(GraveItemHandler handler) {
+        if (handler != this.indexedHandler || handler.getOccupancyVersion() != this.indexedVersion) {
+            rebuildIndex(handler);
+        }
+    }
+
+    private void rebuildIndex(GraveItemHandler handler) {
+        if (this.index.length < handler.getOccupiedSlots()) {
+            this.index = new int[handler.getSlots()];
+        }
+
+        int size = 0;
+        for (int slot = handler.nextOccupied(0); slot >= 0; slot = handler.nextOccupied(slot + 1)) {
+            this.index[size++] = slot;
+        }
+        this.indexSize = size;
+        this.indexedHandler = handler;
+        this.indexedVersion = handler.getOccupancyVersion();
+    }
+
+    /**
+     * Whether automation may take items this tick. The owner check is done at
+     * most once per tick per grave.
+     */
+    private boolean canExtract() {
+        Level level = this.grave.getLevel();
+        if (level == null || level.isClientSide) {
+            return false;
+        }
+
+        long tick = level.getGameTime();
+        if (tick != this.accessTick) {
+            this.accessTick = tick;
+            this.extractedThisTick.clear();
+            this.accessAllowed = switch (GravestoneConfig.AUTOMATION_ACCESS.get()) {
+                case DISABLED -> false;
+                case EXTRACT_ONLY -> true;
+                case OWNER_ONLY -> isOwnerOnline(level.getServer());
+            };
+        }
+        return this.accessAllowed;
+    }
+
+    /**
+     * Whether {@code graveSlot} is within this tick's stack limit. Further pulls
+     * from a slot already taken from this tick count as the same stack.
+     */
+    private boolean withinStackLimit(int graveSlot) {
+        int limit = GravestoneConfig.AUTOMATION_STACKS_PER_TICK.get();
+        return limit == 0 || this.extractedThisTick.size() < limit || this.extractedThisTick.contains(graveSlot);
+    }
+
+    private boolean isOwnerOnline(MinecraftServer server) {
+        if (server == null) {
+            return false;
+        }
+        if (this.grave.getOwnerId() != null) {
+            return server.getPlayerList().getPlayer(this.grave.getOwnerId()) != null;
+        }
+        String owner = this.grave.getOwnerName();
+        return owner != null && server.getPlayerList().getPlayerByName(owner) != null;
+    }
+
+    @Override
+    public int getSlots() {
+        GraveItemHandler handler = this.grave.getItemHandlerIfDecoded();
+        if (handler == null) {
+            return this.grave.getOccupiedSlots();
+        }
+        refreshIndex(handler);
+        return this.indexSize;
+    }
+
+    @NotNull
+    @Override
+    public ItemStack getStackInSlot(int slot) {
+        if (slot < 0 || slot >= getSlots()) {
+            return ItemStack.EMPTY;
+        }
+        // Reading a stack needs the real contents, so this is where a dormant grave gets decoded
+        GraveItemHandler handler = handler();
+        return slot < this.indexSize ? handler.getStackInSlot(this.index[slot]) : ItemStack.EMPTY;
+    }
+
+    @NotNull
+    @Override
+    public ItemStack insertItem(int slot, @NotNull ItemStack stack, boolean simulate) {
+        return stack;
+    }
+
+    @NotNull
+    @Override
+    public ItemStack extractItem(int slot, int amount, boolean simulate) {
+        // Refused extractions never decode the grave
+        if (slot < 0 || slot >= getSlots() || !canExtract()) {
+            return ItemStack.EMPTY;
+        }
+        GraveItemHandler handler = handler();
+        if (slot >= this.indexSize || !withinStackLimit(this.index[slot])) {
+            return ItemStack.EMPTY;
+        }
+
+        int graveSlot = this.index[slot];
+        ItemStack extracted = handler.extractItem(graveSlot, amount, simulate);
+        if (!simulate && !extracted.isEmpty()) {
+            this.extractedThisTick.add(graveSlot);
+        }
+        return extracted;
+    }
+
+    @Override
+    public int getSlotLimit(int slot) {
+        if (slot < 0 || slot >= getSlots()) {
+            return 0;
+        }
+        GraveItemHandler handler = this.grave.getItemHandlerIfDecoded();
+        // Grave slots keep ItemStackHandler's limit of 64, so a dormant grave need not be decoded to answer
+        return handler != null ? handler.getSlotLimit(this.index[slot]) : 64;
+    }
+
+    @Override
+    public boolean isItemValid(int slot, @NotNull ItemStack stack) {
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package es.boopurno.gravestones.block.entity;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.grave.store.BlobStore;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.items.IItemHandler;
+import net.minecraftforge.items.ItemStackHandler;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Versioned on-disk format for gravestone inventories.
+ * <p>
+ * Only occupied slots are written, each tagged with a short slot index, and the
+ * inventory size is recorded once in the header. Graves written before this
+ * format existed store an {@link ItemStackHandler#serializeNBT()} compound under
+ * {@code inventory} plus a separate {@code maxInventorySize}; those are still
+ * read through {@link #readLegacy}.
+ * <p>
+ * When written with a {@link BlobStore}, large item tags are replaced by the
+ * key of a shared copy in the store; reading resolves them again.
+ */
+public final class GraveInventoryCodec {
+    public static final String TAG_GRAVE = "Grave";
+    public static final String TAG_LEGACY_INVENTORY = "inventory";
+    public static final String TAG_LEGACY_SIZE = "maxInventorySize";
+    public static final int VERSION = 2;
+
+    private static final String TAG_VERSION = "V";
+    private static final String TAG_SIZE = "Size";
+    private static final String TAG_ITEMS = "Items";
+    private static final String TAG_SLOT = "S";
+    private static final String TAG_STACK_TAG = "tag";
+    private static final String TAG_COUNT = "Count";
+    private static final String TAG_SHARED = "Shared";
+
+    private GraveInventoryCodec() {
+    }
+
+    public static CompoundTag write(IItemHandler handler) {
+        return write(handler, null, null);
+    }
+
+    /**
+     * Writes the inventory, sharing large item tags through {@code blobs} if
+     * given. The key of every shared tag is added to {@code shared}, once per
+     * stack, for the caller to retain.
+     */
+    public static CompoundTag write(IItemHandler handler, @Nullable BlobStore blobs,
+            @Nullable LongArrayList shared) {
+        CompoundTag tag = new CompoundTag();
+        tag.putByte(TAG_VERSION, (byte) VERSION);
+        tag.putShort(TAG_SIZE, (short) handler.getSlots());
+
+        ListTag items = new ListTag();
+        for (int i = 0; i < handler.getSlots(); i++) {
+            ItemStack stack = handler.getStackInSlot(i);
+            if (!stack.isEmpty()) {
+                CompoundTag itemTag = new CompoundTag();
+                itemTag.putShort(TAG_SLOT, (short) i);
+                stack.save(itemTag);
+                if (blobs != null && itemTag.contains(TAG_STACK_TAG, Tag.TAG_COMPOUND)) {
+                    long key = blobs.share(itemTag.getCompound(TAG_STACK_TAG));
+                    if (key != 0) {
+                        itemTag.remove(TAG_STACK_TAG);
+                        itemTag.putLong(TAG_SHARED, key);
+                        shared.add(key);
+                    }
+                }
+                items.add(itemTag);
+            }
+        }
+        tag.put(TAG_ITEMS, items);
+
+        return tag;
+    }
+
+    public static boolean isCurrent(CompoundTag blockEntityTag) {
+        return blockEntityTag.contains(TAG_GRAVE, Tag.TAG_COMPOUND);
+    }
+
+    public static int readSize(CompoundTag graveTag) {
+        return graveTag.getShort(TAG_SIZE) & 0xFFFF;
+    }
+
+    public static void read(CompoundTag graveTag, ItemStackHandler handler) {
+        read(graveTag, handler, null);
+    }
+
+    public static void read(CompoundTag graveTag, ItemStackHandler handler, @Nullable BlobStore blobs) {
+        int version = graveTag.getByte(TAG_VERSION);
+        if (version > VERSION) {
+            Gravestones.LOGGER.warn("Gravestone inventory was saved with a newer format (v{}), reading as v{}",
+                    version, VERSION);
+        }
+
+        // Empty slots are not written, so start from a cleared handler
+        handler.setSize(handler.getSlots());
+
+        ListTag items = graveTag.getList(TAG_ITEMS, Tag.TAG_COMPOUND);
+        for (int i = 0; i < items.size(); i++) {
+            CompoundTag itemTag = items.getCompound(i);
+            int slot = itemTag.getShort(TAG_SLOT) & 0xFFFF;
+            if (slot < handler.getSlots()) {
+                handler.setStackInSlot(slot, ItemStack.of(resolveShared(itemTag, blobs)));
+            }
+        }
+    }
+
+    private static CompoundTag resolveShared(CompoundTag itemTag, @Nullable BlobStore blobs) {
+        if (!itemTag.contains(TAG_SHARED, Tag.TAG_LONG)) {
+            return itemTag;
+        }
+
+        CompoundTag stackTag = blobs != null ? blobs.resolve(itemTag.getLong(TAG_SHARED)) : null;
+        if (stackTag == null) {
+            Gravestones.LOGGER.error("Could not resolve the shared tag of {}, restoring it without one",
+                    itemTag.getString("id"));
+            return itemTag;
+        }
+        CompoundTag resolved = itemTag.copy();
+        resolved.remove(TAG_SHARED);
+        resolved.put(TAG_STACK_TAG, stackTag);
+        return resolved;
+    }
+
+    /**
+     * Keys of the shared item tags a current-format inventory refers to, once per
+     * stack, without decoding any stack.
+     */
+    public static LongArrayList sharedKeys(CompoundTag graveTag) {
+        LongArrayList keys = new LongArrayList();
+        ListTag items = graveTag.getList(TAG_ITEMS, Tag.TAG_COMPOUND);
+        for (int i = 0; i < items.size(); i++) {
+            CompoundTag itemTag = items.getCompound(i);
+            if (itemTag.contains(TAG_SHARED, Tag.TAG_LONG)) {
+                keys.add(itemTag.getLong(TAG_SHARED));
+            }
+        }
+        return keys;
+    }
+
+    public static void readLegacy(CompoundTag inventoryTag, ItemStackHandler handler) {
+        handler.deserializeNBT(inventoryTag);
+    }
+
+    /**
+     * Number of occupied slots in either format, without decoding any stack.
+     */
+    public static int countOccupied(CompoundTag inventoryTag) {
+        // Both formats keep one list entry per occupied slot under the same key
+        return inventoryTag.getList(TAG_ITEMS, Tag.TAG_COMPOUND).size();
+    }
+
+    /**
+     * Total number of items in either format, read from each stack's count
+     * without decoding any stack.
+     */
+    public static int countItems(CompoundTag inventoryTag) {
+        ListTag items = inventoryTag.getList(TAG_ITEMS, Tag.TAG_COMPOUND);
+        int total = 0;
+        for (int i = 0; i < items.size(); i++) {
+            total += items.getCompound(i).getByte(TAG_COUNT);
+        }
+        return total;
+    }
+}
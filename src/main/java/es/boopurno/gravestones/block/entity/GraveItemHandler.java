@@ -0,0 +1,158 @@
+package es.boopurno.gravestones.block.entity;
+
+import net.minecraft.util.Mth;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.items.ItemStackHandler;
+
+/**
+ * The grave's inventory, with an occupied-slot bitmap and running counts kept up
+ * to date on every change.
+ * <p>
+ * Every mutation that goes through the handler ({@link #setStackInSlot},
+ * {@link #insertItem}, {@link #extractItem} and deserialization) refreshes the
+ * slot's bit and its item count, so {@link #isEmpty()}, the occupied slot count
+ * and the item total are O(1), and {@link #nextOccupied} walks only occupied
+ * slots a word at a time. The comparator signal is cached until the next change.
+ * Stacks changed in place through {@link #getStackInSlot} without a following
+ * {@code setStackInSlot} are not seen, as with any {@link ItemStackHandler}.
+ */
+public class GraveItemHandler extends ItemStackHandler {
+    private final Runnable onChanged;
+    private long[] occupied;
+    private int[] counts;
+    private int occupiedSlots;
+    private int totalItems;
+    private int comparatorSignal = -1;
+    private int occupancyVersion;
+
+    public GraveItemHandler(int size, Runnable onChanged) {
+        super(size);
+        this.onChanged = onChanged;
+        this.occupied = new long[words(size)];
+        this.counts = new int[size];
+    }
+
+    private static int words(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    @Override
+    public void setSize(int size) {
+        super.setSize(size);
+        this.occupied = new long[words(size)];
+        this.counts = new int[size];
+        this.occupiedSlots = 0;
+        this.totalItems = 0;
+        this.comparatorSignal = -1;
+        this.occupancyVersion++;
+    }
+
+    @Override
+    protected void onLoad() {
+        // deserializeNBT fills the stacks directly, so rebuild the index from scratch
+        for (int slot = 0; slot < this.stacks.size(); slot++) {
+            track(slot);
+        }
+    }
+
+    @Override
+    protected void onContentsChanged(int slot) {
+        track(slot);
+        this.onChanged.run();
+    }
+
+    private void track(int slot) {
+        // A different item with the same count can still change the comparator output
+        this.comparatorSignal = -1;
+
+        ItemStack stack = this.stacks.get(slot);
+        int count = stack.isEmpty() ? 0 : stack.getCount();
+        int previous = this.counts[slot];
+        if (count == previous) {
+            return;
+        }
+
+        this.counts[slot] = count;
+        this.totalItems += count - previous;
+
+        long bit = 1L << slot;
+        if (previous == 0) {
+            this.occupied[slot >>> 6] |= bit;
+            this.occupiedSlots++;
+            this.occupancyVersion++;
+        } else if (count == 0) {
+            this.occupied[slot >>> 6] &= ~bit;
+            this.occupiedSlots--;
+            this.occupancyVersion++;
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.occupiedSlots == 0;
+    }
+
+    public int getOccupiedSlots() {
+        return this.occupiedSlots;
+    }
+
+    public int getTotalItems() {
+        return this.totalItems;
+    }
+
+    /**
+     * Changes whenever a slot becomes occupied or empty, so views built from
+     * {@link #nextOccupied} can tell when they are stale.
+     */
+    public int getOccupancyVersion() {
+        return this.occupancyVersion;
+    }
+
+    /**
+     * The first occupied slot at or after {@code from}, or -1 if there is none.
+     * Iterate with {@code for (int s = h.nextOccupied(0); s >= 0; s = h.nextOccupied(s + 1))}.
+     */
+    public int nextOccupied(int from) {
+        if (from >= this.stacks.size()) {
+            return -1;
+        }
+
+        int word = from >>> 6;
+        long bits = this.occupied[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word >= this.occupied.length) {
+                return -1;
+            }
+            bits = this.occupied[word];
+        }
+    }
+
+    /**
+     * Comparator output for the grave, computed the way vanilla containers do
+     * from how full each slot is, and cached until the contents change.
+     *
+     * @see net.minecraft.world.inventory.AbstractContainerMenu#getRedstoneSignalFromContainer
+     */
+    public int getComparatorSignal() {
+        if (this.comparatorSignal < 0) {
+            this.comparatorSignal = computeComparatorSignal();
+        }
+        return this.comparatorSignal;
+    }
+
+    private int computeComparatorSignal() {
+        if (this.occupiedSlots == 0) {
+            return 0;
+        }
+
+        float fullness = 0.0F;
+        for (int slot = nextOccupied(0); slot >= 0; slot = nextOccupied(slot + 1)) {
+            ItemStack stack = this.stacks.get(slot);
+            fullness += (float) stack.getCount() / (float) Math.min(getSlotLimit(slot), stack.getMaxStackSize());
+        }
+        fullness /= (float) this.stacks.size();
+        return Mth.floor(fullness * 14.0F) + 1;
+    }
+}
@@ -0,0 +1,198 @@
+package es.boopurno.gravestones.block.entity;
+
+import es.boopurno.gravestones.grave.GraveLayout;
+import es.boopurno.gravestones.grave.GraveSlotGroup;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the stacks of another death into an existing grave.
+ * <p>
+ * Each stack first tops up identical stacks already in the grave, then takes
+ * the grave slot of the player slot it came from if that is free, then any free
+ * dynamic slot of its group. What is left is kept per group, consolidated with
+ * the other leftovers, until {@link #grow} builds a larger layout that appends
+ * it to the end of its group. Partially filled stacks are indexed by item once,
+ * so a merge never rescans the grave per stack.
+ */
+final class GraveMerge {
+    private final GraveLayout layout;
+    private final GraveItemHandler handler;
+    private final Reference2ObjectOpenHashMap<Item, IntArrayList> partialSlots = new Reference2ObjectOpenHashMap<>();
+    private final List<GraveSlotGroup> groups = new ArrayList<>();
+    private final List<List<ItemStack>> leftovers = new ArrayList<>();
+
+    GraveMerge(GraveLayout layout, GraveItemHandler handler) {
+        this.layout = layout;
+        this.handler = handler;
+        for (int g = 0; g < layout.getGroupCount(); g++) {
+            this.groups.add(layout.getGroup(g));
+            this.leftovers.add(new ArrayList<>());
+        }
+        for (int slot = handler.nextOccupied(0); slot >= 0; slot = handler.nextOccupied(slot + 1)) {
+            indexPartial(slot);
+        }
+    }
+
+    private void indexPartial(int slot) {
+        ItemStack stack = this.handler.getStackInSlot(slot);
+        if (canStack(stack) && stack.getCount() < limit(slot, stack)) {
+            this.partialSlots.computeIfAbsent(stack.getItem(), item -> new IntArrayList(2)).add(slot);
+        }
+    }
+
+    private static boolean canStack(ItemStack stack) {
+        return stack.isStackable() && !stack.isDamaged();
+    }
+
+    private int limit(int slot, ItemStack stack) {
+        return Math.min(stack.getMaxStackSize(), this.handler.getSlotLimit(slot));
+    }
+
+    /**
+     * Merges one stack, which came from {@code sourceSlot} of {@code group} in
+     * the dying player's inventory.
+     */
+    void place(ItemStack stack, GraveSlotGroup group, int sourceSlot) {
+        topUp(stack);
+        if (stack.isEmpty()) {
+            return;
+        }
+
+        int g = indexOf(group);
+        int slot = g >= 0 && g < this.layout.getGroupCount() ? freeSlot(g, sourceSlot) : -1;
+        if (slot >= 0) {
+            this.handler.setStackInSlot(slot, stack);
+            indexPartial(slot);
+            return;
+        }
+
+        if (g < 0) {
+            this.groups.add(group);
+            this.leftovers.add(new ArrayList<>());
+            g = this.groups.size() - 1;
+        }
+        addLeftover(this.leftovers.get(g), stack);
+    }
+
+    private void topUp(ItemStack stack) {
+        if (!canStack(stack)) {
+            return;
+        }
+        IntArrayList slots = this.partialSlots.get(stack.getItem());
+        if (slots == null) {
+            return;
+        }
+
+        for (int i = 0; i < slots.size() && !stack.isEmpty(); ) {
+            int slot = slots.getInt(i);
+            ItemStack existing = this.handler.getStackInSlot(slot);
+            if (!ItemStack.isSameItemSameTags(existing, stack)) {
+                i++;
+                continue;
+            }
+
+            int moved = Math.min(limit(slot, existing) - existing.getCount(), stack.getCount());
+            // Set rather than grown in place, so the handler's occupancy counts stay right
+            this.handler.setStackInSlot(slot, existing.copyWithCount(existing.getCount() + moved));
+            stack.shrink(moved);
+            if (existing.getCount() + moved >= limit(slot, existing)) {
+                slots.removeInt(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * The grave slot for {@code sourceSlot} if it is free, else the first free
+     * dynamic slot of the group, else -1. Other fixed slots are never used, so an
+     * item is never restored into a slot of a different kind, such as a helmet
+     * into the boots slot.
+     */
+    private int freeSlot(int group, int sourceSlot) {
+        int slot = this.layout.getGraveSlot(group, sourceSlot);
+        if (slot >= 0 && this.handler.getStackInSlot(slot).isEmpty()) {
+            return slot;
+        }
+
+        int start = this.layout.getGroupStart(group);
+        int end = start + this.layout.getGroupSize(group);
+        for (slot = start; slot < end; slot++) {
+            if (this.layout.getSourceSlot(slot) < 0 && this.handler.getStackInSlot(slot).isEmpty()) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static void addLeftover(List<ItemStack> leftovers, ItemStack stack) {
+        if (canStack(stack)) {
+            for (ItemStack leftover : leftovers) {
+                if (ItemStack.isSameItemSameTags(leftover, stack) && leftover.getCount() < leftover.getMaxStackSize()) {
+                    int moved = Math.min(leftover.getMaxStackSize() - leftover.getCount(), stack.getCount());
+                    leftover.grow(moved);
+                    stack.shrink(moved);
+                    if (stack.isEmpty()) {
+                        return;
+                    }
+                }
+            }
+        }
+        leftovers.add(stack);
+    }
+
+    private int indexOf(GraveSlotGroup group) {
+        for (int g = 0; g < this.groups.size(); g++) {
+            if (this.groups.get(g).getId().equals(group.getId())) {
+                return g;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The larger layout the leftovers need, or null if everything fit into the
+     * grave as it is.
+     */
+    @Nullable
+    GraveLayout grownLayout() {
+        int[] sizes = new int[this.groups.size()];
+        boolean grows = false;
+        for (int g = 0; g < sizes.length; g++) {
+            sizes[g] = (g < this.layout.getGroupCount() ? this.layout.getGroupSize(g) : 0)
+                    + this.leftovers.get(g).size();
+            grows |= !this.leftovers.get(g).isEmpty();
+        }
+        return grows ? GraveLayout.create(this.groups, sizes) : null;
+    }
+
+    /**
+     * Moves the grave's stacks and the leftovers into {@code target}, laid out as
+     * {@code grown}. Every group of {@code grown} has at least one slot, so its
+     * groups are numbered as in this merge.
+     */
+    void grow(GraveLayout grown, GraveItemHandler target) {
+        for (int g = 0; g < this.groups.size(); g++) {
+            int slot = grown.getGroupStart(g);
+            if (g < this.layout.getGroupCount()) {
+                int start = this.layout.getGroupStart(g);
+                for (int i = 0; i < this.layout.getGroupSize(g); i++, slot++) {
+                    ItemStack stack = this.handler.getStackInSlot(start + i);
+                    if (!stack.isEmpty()) {
+                        target.setStackInSlot(slot, stack);
+                    }
+                }
+            }
+            for (ItemStack leftover : this.leftovers.get(g)) {
+                target.setStackInSlot(slot++, leftover);
+            }
+        }
+    }
+}
@@ -2,19 +2,34 @@ package es.boopurno.gravestones.block.entity;
 
 import es.boopurno.gravestones.Gravestones;
 import es.boopurno.gravestones.integration.ModIntegration;
-import es.boopurno.gravestones.integration.CuriosIntegration;
 import es.boopurno.gravestones.menu.GravestoneMenu;
+import es.boopurno.gravestones.config.DeathSettings;
 import es.boopurno.gravestones.config.GravestoneConfig;
+import es.boopurno.gravestones.death.DeathSnapshot;
+import es.boopurno.gravestones.death.ItemLossEngine;
+import es.boopurno.gravestones.grave.GraveLayout;
+import es.boopurno.gravestones.grave.GraveExpiry;
+import es.boopurno.gravestones.grave.GraveRegistry;
+import es.boopurno.gravestones.grave.store.BlobStore;
+import es.boopurno.gravestones.grave.store.GraveStore;
+import es.boopurno.gravestones.grave.store.GraveStores;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.Util;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
-import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.Connection;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientGamePacketListener;
 import net.minecraft.network.protocol.game.ClientboundBlockEntityDataPacket;
-import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.TickTask;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.util.RandomSource;
 import net.minecraft.world.Containers;
 import net.minecraft.world.MenuProvider;
 import net.minecraft.world.SimpleContainer;
@@ -25,8 +40,6 @@ import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.state.BlockState;
-import net.minecraft.world.item.enchantment.EnchantmentHelper;
-import net.minecraft.world.item.enchantment.Enchantment;
 import net.minecraftforge.common.capabilities.Capability;
 import net.minecraftforge.common.capabilities.ForgeCapabilities;
 import net.minecraftforge.common.util.LazyOptional;
@@ -35,569 +48,613 @@ import net.minecraftforge.items.ItemStackHandler;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Random;
+import java.io.UncheckedIOException;
+import java.util.UUID;
 
 public class GravestoneBlockEntity extends BlockEntity implements MenuProvider {
-    private int maxInventorySize;
-    private final boolean hasCosmeticArmor;
-    private final boolean hasCurios;
-    private int curiosItemCount = 0;
+    private static final String TAG_STORED = "Stored";
+
+    private GraveLayout layout = GraveLayout.VANILLA;
+    // Client-side only: the server's occupied slot count from the last update tag
+    private int occupiedSlots = 0;
 
     @Nullable
     private String ownerName;
-
-    private ItemStackHandler itemHandler;
+    @Nullable
+    private UUID ownerId;
+    // Id in the GraveRegistry, 0 until registered; game time the grave was placed at
+    private long graveId;
+    private long createdAt;
+    private boolean loadedFromSave;
+
+    private GraveItemHandler itemHandler;
+    // Inventory tag from load(), kept undecoded until first access
+    @Nullable
+    private CompoundTag retainedInventory;
+    private boolean retainedLegacy;
+    // Contents saved to the GraveStore rather than the chunk: whether they are there, whether they
+    // still need fetching after load(), whether they changed since last written, and the occupied
+    // slot count and item total saved next to the reference
+    private boolean contentsStored;
+    private boolean storePending;
+    private boolean contentsDirty = true;
+    private int storedOccupied;
+    private int storedItems;
+    // Comparator signal saved with the contents, answered from until they are decoded; -1 if unknown
+    private int storedSignal = -1;
+    // Set while retained contents are decoded, which restores them rather than changing them
+    private boolean decoding;
+    // Shared item tags the grave's record in the store refers to, and holds a reference on
+    private LongArrayList storedShared = new LongArrayList();
+    private final GraveAutomationHandler automationHandler = new GraveAutomationHandler(this);
     private LazyOptional<IItemHandler> lazyItemHandler = LazyOptional.empty();
 
+    // Open edit() batches and what they have deferred until the outermost one closes
+    private int editDepth;
+    private boolean editChanged;
+    private boolean editSync;
+    private boolean removalScheduled;
+
     public GravestoneBlockEntity(BlockPos pPos, BlockState pBlockState) {
         super(Gravestones.GRAVESTONE_BLOCK_ENTITY_TYPE.get(), pPos, pBlockState);
 
-        this.hasCosmeticArmor = ModIntegration.hasCosmeticArmor();
-        this.hasCurios = ModIntegration.hasCurios();
-        this.maxInventorySize = ModIntegration.calculateInventorySize();
-
-        this.itemHandler = new ItemStackHandler(this.maxInventorySize) {
-            @Override
-            protected void onContentsChanged(int slot) {
-                setChanged();
-            }
-        };
-
-        Gravestones.LOGGER.debug("GravestoneBlockEntity initialized with {} slots (Cosmetic: {}, Curios: {})",
-                this.maxInventorySize, hasCosmeticArmor, hasCurios);
-    }
-
-    public void setOwnerName(@Nullable String name) {
-        this.ownerName = name;
-        this.setChanged();
-    }
-
-    @Nullable
-    public String getOwnerName() {
-        return this.ownerName;
-    }
-
-    public int getMaxInventorySize() {
-        return this.maxInventorySize;
-    }
-
-    public boolean hasCosmeticArmor() {
-        return ModIntegration.hasCosmeticArmor();
-    }
-
-    public boolean hasCurios() {
-        return this.hasCurios;
-    }
-
-    public int getCuriosItemCount() {
-        return this.curiosItemCount;
-    }
-
-    public void setCuriosItemCount(int count) {
-        this.curiosItemCount = count;
-        this.setChanged();
-
-        if (this.level != null && !this.level.isClientSide) {
-            this.level.sendBlockUpdated(this.getBlockPos(), this.getBlockState(), this.getBlockState(), 3);
+        this.itemHandler = createItemHandler(this.layout.size());
+    }
+
+    private GraveItemHandler createItemHandler(int size) {
+        return new GraveItemHandler(size, () -> markChanged(false));
+    }
+
+    /**
+     * Starts a batch of changes to this grave. Until the returned edit is closed,
+     * slot and owner changes only record that something changed; closing the
+     * outermost edit then marks the block entity changed once and sends at most
+     * one block update, instead of one {@code setChanged} per slot.
+     * <pre>{@code
+     * try (GravestoneBlockEntity.Edit edit = grave.edit()) {
+     *     ...
+     * }
+     * }</pre>
+     * Edits nest, and are only meant to be used on the server thread.
+     */
+    public Edit edit() {
+        this.editDepth++;
+        return new Edit();
+    }
+
+    /**
+     * Records a change, deferring it to the enclosing {@link #edit()} if there is
+     * one. {@code sync} changes are ones tracking clients need to see, such as
+     * the owner name or layout.
+     */
+    private void markChanged(boolean sync) {
+        if (this.decoding) {
+            return;
         }
-    }
-
-    @Nullable
-    @Override
-    public AbstractContainerMenu createMenu(int pContainerId, Inventory pPlayerInventory, Player pPlayer) {
-        return new GravestoneMenu(pContainerId, pPlayerInventory, this, this.itemHandler);
-    }
-
-    @NotNull
-    @Override
-    public <T> LazyOptional<T> getCapability(@NotNull Capability<T> cap, @Nullable Direction side) {
-        if (cap == ForgeCapabilities.ITEM_HANDLER) {
-            return lazyItemHandler.cast();
+        if (this.editDepth > 0) {
+            this.editChanged = true;
+            this.editSync |= sync;
+            return;
         }
-        return super.getCapability(cap, side);
-    }
-
-    @Override
-    public void onLoad() {
-        super.onLoad();
-        lazyItemHandler = LazyOptional.of(() -> itemHandler);
-    }
 
-    @Override
-    public void invalidateCaps() {
-        super.invalidateCaps();
-        lazyItemHandler.invalidate();
+        this.contentsDirty = true;
+        setChanged();
+        if (sync) {
+            syncToClients();
+        }
+        afterCommit();
     }
 
-    public void setItemsOnDeath(Inventory playerInventory) {
-        Player player = playerInventory.player;
-        applyItemLoss(player);
-
-        int requiredSize = ModIntegration.calculateInventorySize(player);
-        if (requiredSize != this.maxInventorySize) {
-            Gravestones.LOGGER.debug("Resizing gravestone inventory from {} to {} slots for player {}",
-                    this.maxInventorySize, requiredSize, player.getName().getString());
+    public final class Edit implements AutoCloseable {
+        private boolean closed;
 
-            this.maxInventorySize = requiredSize;
-
-            ItemStackHandler newHandler = new ItemStackHandler(this.maxInventorySize) {
-                @Override
-                protected void onContentsChanged(int slot) {
-                    setChanged();
-                }
-            };
-
-            for (int i = 0; i < Math.min(this.itemHandler.getSlots(), newHandler.getSlots()); i++) {
-                newHandler.setStackInSlot(i, this.itemHandler.getStackInSlot(i));
-            }
-
-            this.itemHandler = newHandler;
-            this.lazyItemHandler.invalidate();
-            this.lazyItemHandler = LazyOptional.of(() -> this.itemHandler);
-        }
-
-        if (ModIntegration.hasCurios()) {
-            this.setCuriosItemCount(CuriosIntegration.getCuriosItemCount(player));
+        private Edit() {
         }
 
-        ModIntegration.storePlayerInventory(player, this.itemHandler);
-        setChanged();
-    }
-
-    private void applyItemLoss(Player player) {
-        if (!GravestoneConfig.ENABLE_ITEM_LOSS.get()) {
-            return;
+        /**
+         * Sends a block update to tracking clients when the batch commits.
+         */
+        public void sync() {
+            editChanged = true;
+            editSync = true;
         }
 
-        Random random = new Random();
-        Inventory inventory = player.getInventory();
-
-        List<ItemStack> allItems = new ArrayList<>();
-        List<Object> itemSources = new ArrayList<>();
-
-        for (int i = 9; i < 36; i++) {
-            ItemStack stack = inventory.items.get(i);
-            if (!stack.isEmpty()) {
-                allItems.add(stack);
-                itemSources.add(new InventorySource("main", i));
+        @Override
+        public void close() {
+            if (this.closed) {
+                return;
             }
-        }
+            this.closed = true;
 
-        for (int i = 0; i < 9; i++) {
-            ItemStack stack = inventory.items.get(i);
-            if (!stack.isEmpty()) {
-                allItems.add(stack);
-                itemSources.add(new InventorySource("hotbar", i));
+            if (--editDepth > 0 || !editChanged) {
+                return;
             }
-        }
 
-        for (int i = 0; i < inventory.armor.size(); i++) {
-            ItemStack stack = inventory.armor.get(i);
-            if (!stack.isEmpty()) {
-                allItems.add(stack);
-                itemSources.add(new InventorySource("armor", i));
+            boolean sync = editSync;
+            editChanged = false;
+            editSync = false;
+            contentsDirty = true;
+            setChanged();
+            if (sync) {
+                syncToClients();
             }
+            afterCommit();
         }
+    }
 
-        if (!inventory.offhand.get(0).isEmpty()) {
-            allItems.add(inventory.offhand.get(0));
-            itemSources.add(new InventorySource("offhand", 0));
-        }
-
-        if (ModIntegration.hasCosmeticArmor()) {
-            addCosmeticArmorItems(player, allItems, itemSources);
-        }
-
-        if (GravestoneConfig.RESPECT_CURSE_OF_VANISHING.get()) {
-            handleCurseOfVanishing(allItems, itemSources, player);
-        }
-
-        if (GravestoneConfig.ENABLE_CURSE_APPLICATION.get()) {
-            applyCursesToItems(allItems, random);
+    private void afterCommit() {
+        if (this.graveId != 0 && !isDormant() && this.level instanceof ServerLevel serverLevel) {
+            GraveRegistry.get(serverLevel.getServer()).updateItemCount(this.graveId, this.itemHandler.getTotalItems());
         }
+        removeIfEmpty();
+    }
 
-        int minSlotsPercent = GravestoneConfig.MIN_SLOTS_LOST_PERCENT.get();
-        int maxSlotsPercent = GravestoneConfig.MAX_SLOTS_LOST_PERCENT.get();
-        int slotPercentage = minSlotsPercent + random.nextInt(Math.max(1, maxSlotsPercent - minSlotsPercent + 1));
-        int slotsToAffect = Math.max(1, (allItems.size() * slotPercentage) / 100);
-
-        List<Integer> indices = new ArrayList<>();
-        for (int i = 0; i < allItems.size(); i++) {
-            indices.add(i);
+    /**
+     * Schedules the grave's removal once its last item is gone. Removal waits for
+     * the next tick, so whatever emptied the grave (a menu click, a restore or a
+     * block break) finishes against an intact block entity first.
+     */
+    private void removeIfEmpty() {
+        if (this.removalScheduled || isDormant() || !this.itemHandler.isEmpty()
+                || !(this.level instanceof ServerLevel serverLevel) || !GravestoneConfig.REMOVE_EMPTY_GRAVES.get()) {
+            return;
         }
-        Collections.shuffle(indices, random);
 
-        int itemsLost = 0;
-        int stacksAffected = 0;
-
-        for (int i = 0; i < Math.min(slotsToAffect, indices.size()); i++) {
-            int index = indices.get(i);
-            ItemStack itemStack = allItems.get(index);
-            Object source = itemSources.get(index);
-
-            if (isItemBlacklisted(itemStack)) {
-                continue;
+        this.removalScheduled = true;
+        runNextTick(serverLevel, () -> {
+            this.removalScheduled = false;
+            if (this.itemHandler.isEmpty()) {
+                Gravestones.LOGGER.debug("Removing empty gravestone at {}", this.worldPosition);
+                serverLevel.removeBlock(this.worldPosition, false);
             }
-
-            if (GravestoneConfig.PROTECT_ENCHANTED_ITEMS.get() && !itemStack.getEnchantmentTags().isEmpty()) {
-                int protection = GravestoneConfig.ENCHANTED_ITEM_PROTECTION.get();
-
-                if (random.nextInt(100) < protection) {
-                    continue;
-                }
-            }
-
-            int lost = 0;
-            if (itemStack.isDamageableItem()) {
-                lost = applyDurabilityLoss(itemStack, random);
-            } else {
-                lost = applyQuantityLoss(itemStack, random);
-            }
-
-            if (lost > 0) {
-                itemsLost += lost;
-                stacksAffected++;
+        });
+    }
+
+    /**
+     * Runs {@code task} on the next server tick if this is still the block
+     * entity at its position by then.
+     */
+    private void runNextTick(ServerLevel serverLevel, Runnable task) {
+        MinecraftServer server = serverLevel.getServer();
+        server.tell(new TickTask(server.getTickCount() + 1, () -> {
+            if (!this.isRemoved() && serverLevel.getBlockEntity(this.worldPosition) == this) {
+                task.run();
             }
+        }));
+    }
 
-            updateItemSource(source, itemStack, player);
+    /**
+     * Ends the grave's lifetime as set by {@link GravestoneConfig#EXPIRY_ACTION}
+     * and removes its block. Dropping is left to the block's removal, which drops
+     * whatever the grave still holds.
+     */
+    public void expire() {
+        if (!(this.level instanceof ServerLevel serverLevel) || this.isRemoved()) {
+            return;
         }
 
-        if (GravestoneConfig.AFFECT_CURIOS_ITEMS.get() && ModIntegration.hasCurios()) {
-            int[] curiosResults = applyCuriosItemLoss(player, random);
-            itemsLost += curiosResults[0];
-            stacksAffected += curiosResults[1];
-        }
+        GravestoneConfig.ExpiryAction action = GravestoneConfig.EXPIRY_ACTION.get();
+        Gravestones.LOGGER.info("Gravestone {} of {} at {} expired ({})", this.graveId, this.ownerName,
+                this.worldPosition, action);
 
-        if (itemsLost > 0 || stacksAffected > 0) {
-            Gravestones.LOGGER.info(
-                    "Player {} lost {} items from {} stacks on death ({}-{}% of occupied slots affected)",
-                    player.getName().getString(), itemsLost, stacksAffected, minSlotsPercent, maxSlotsPercent);
+        GraveItemHandler handler = getDecodedItemHandler();
+        if (action == GravestoneConfig.ExpiryAction.RECOVERY_FILE && !handler.isEmpty()
+                && !GraveExpiry.writeRecoveryFile(serverLevel.getServer(), this.graveId, saveForRecovery())) {
+            // Never destroy items that were not written out; the grave stays until an admin steps in
+            return;
         }
-    }
 
-    private void addCosmeticArmorItems(Player player, List<ItemStack> allItems, List<Object> itemSources) {
-        try {
-            Class<?> cosArmorApiClass = Class.forName("lain.mods.cos.api.CosArmorAPI");
-            Object cosmeticInventory = cosArmorApiClass.getMethod("getCAStacks", java.util.UUID.class)
-                    .invoke(null, player.getUUID());
-
-            if (cosmeticInventory != null) {
-                for (int i = 0; i < 4; i++) {
-                    java.lang.reflect.Method getStackMethod = cosmeticInventory.getClass().getMethod("getStackInSlot",
-                            int.class);
-                    ItemStack stack = (ItemStack) getStackMethod.invoke(cosmeticInventory, i);
-
-                    if (!stack.isEmpty()) {
-                        allItems.add(stack);
-                        itemSources.add(new CosmeticArmorSource(cosmeticInventory, i));
-                    }
+        if (action != GravestoneConfig.ExpiryAction.DROP) {
+            try (Edit edit = edit()) {
+                for (int i = handler.nextOccupied(0); i >= 0; i = handler.nextOccupied(i + 1)) {
+                    handler.setStackInSlot(i, ItemStack.EMPTY);
                 }
             }
-        } catch (Exception e) {
-            Gravestones.LOGGER.warn("Failed to access cosmetic armor items for item loss: {}", e.getMessage());
         }
+        serverLevel.removeBlock(this.worldPosition, false);
     }
 
-    private void updateItemSource(Object source, ItemStack itemStack, Player player) {
-        try {
-            if (source instanceof InventorySource) {
-                InventorySource invSource = (InventorySource) source;
-                Inventory inventory = player.getInventory();
-
-                switch (invSource.type) {
-                    case "main":
-                        inventory.items.set(invSource.slot, itemStack);
-                        break;
-                    case "hotbar":
-                        inventory.items.set(invSource.slot, itemStack);
-                        break;
-                    case "armor":
-                        inventory.armor.set(invSource.slot, itemStack);
-                        break;
-                    case "offhand":
-                        inventory.offhand.set(invSource.slot, itemStack);
-                        break;
+    private CompoundTag saveForRecovery() {
+        CompoundTag tag = new CompoundTag();
+        tag.putLong("GraveId", this.graveId);
+        if (this.ownerName != null) {
+            tag.putString("OwnerName", this.ownerName);
+        }
+        if (this.ownerId != null) {
+            tag.putUUID("OwnerUUID", this.ownerId);
+        }
+        tag.putString("Dimension", this.level.dimension().location().toString());
+        tag.putLong("Pos", this.worldPosition.asLong());
+        tag.putLong("CreatedAt", this.createdAt);
+        tag.put(GraveLayout.TAG_LAYOUT, this.layout.save());
+        tag.put(GraveInventoryCodec.TAG_GRAVE, GraveInventoryCodec.write(getDecodedItemHandler()));
+        return tag;
+    }
+
+    /**
+     * True once every slot is empty. Dormant graves answer from their saved
+     * occupied slot count without being decoded.
+     */
+    public boolean isEmpty() {
+        return countOccupiedSlots() == 0;
+    }
+
+    /**
+     * Comparator output for the grave. Dormant graves answer from the signal
+     * saved with their contents, and are only decoded if they were saved without
+     * one.
+     */
+    public int getComparatorSignal() {
+        int signal = peekComparatorSignal();
+        return signal >= 0 ? signal : getDecodedItemHandler().getComparatorSignal();
+    }
+
+    /**
+     * The comparator signal if it is known without decoding the grave, else -1.
+     */
+    private int peekComparatorSignal() {
+        return isDormant() ? this.storedSignal : this.itemHandler.getComparatorSignal();
+    }
+
+    /**
+     * True while the contents loaded by {@link #load} have not been decoded yet,
+     * or not even fetched from the {@link GraveStore}.
+     */
+    private boolean isDormant() {
+        return this.retainedInventory != null || this.storePending;
+    }
+
+    /**
+     * Returns the item handler, decoding the inventory retained by {@link #load}
+     * on first use. Dormant graves never pay for item deserialization, and
+     * decoding leaves the grave as clean as it was: filling the slots is not a
+     * change to save, count or sync.
+     */
+    GraveItemHandler getDecodedItemHandler() {
+        fetchStored();
+        if (this.retainedInventory != null) {
+            CompoundTag inventoryTag = this.retainedInventory;
+            this.retainedInventory = null;
+
+            this.decoding = true;
+            try {
+                if (this.retainedLegacy) {
+                    GraveInventoryCodec.readLegacy(inventoryTag, this.itemHandler);
+                } else {
+                    GraveInventoryCodec.read(inventoryTag, this.itemHandler, GraveStores.blobs());
                 }
-            } else if (source instanceof CosmeticArmorSource) {
-                CosmeticArmorSource cosSource = (CosmeticArmorSource) source;
-                java.lang.reflect.Method setStackMethod = cosSource.inventory.getClass().getMethod("setStackInSlot",
-                        int.class, ItemStack.class);
-                setStackMethod.invoke(cosSource.inventory, cosSource.slot, itemStack);
+            } finally {
+                this.decoding = false;
             }
-        } catch (Exception e) {
-            Gravestones.LOGGER.warn("Failed to update item source after loss: {}", e.getMessage());
         }
+        return this.itemHandler;
     }
 
-    private static class InventorySource {
-        String type;
-        int slot;
+    /**
+     * The item handler if the grave has been decoded, else null, for callers that
+     * can answer for a dormant grave from its saved summary instead.
+     */
+    @Nullable
+    GraveItemHandler getItemHandlerIfDecoded() {
+        return isDormant() ? null : this.itemHandler;
+    }
+
+    /**
+     * Fetches contents saved to the {@link GraveStore} into
+     * {@link #retainedInventory}, still undecoded. If there is no store to fetch
+     * from, the grave stays dormant and keeps its reference rather than
+     * treating itself as empty.
+     */
+    private void fetchStored() {
+        if (!this.storePending) {
+            return;
+        }
+        GraveStore store = GraveStores.get();
+        if (store == null) {
+            Gravestones.LOGGER.error("Gravestone {} at {} keeps its contents in a grave store, but none is open",
+                    this.graveId, this.worldPosition);
+            return;
+        }
 
-        InventorySource(String type, int slot) {
-            this.type = type;
-            this.slot = slot;
+        this.storePending = false;
+        CompoundTag contents = store.load(this.graveId);
+        if (contents == null) {
+            Gravestones.LOGGER.error("Contents of gravestone {} at {} are missing from the grave store",
+                    this.graveId, this.worldPosition);
+            this.contentsStored = false;
+            return;
         }
+        this.retainedInventory = contents.getCompound(GraveInventoryCodec.TAG_GRAVE);
+        this.retainedLegacy = false;
+        this.storedShared = GraveInventoryCodec.sharedKeys(this.retainedInventory);
     }
 
-    private static class CosmeticArmorSource {
-        Object inventory;
-        int slot;
-
-        CosmeticArmorSource(Object inventory, int slot) {
-            this.inventory = inventory;
-            this.slot = slot;
-        }
+    public void setOwnerName(@Nullable String name) {
+        this.ownerName = name;
+        markChanged(true);
     }
 
-    private int applyDurabilityLoss(ItemStack itemStack, Random random) {
-        int maxDamage = itemStack.getMaxDamage();
-        int currentDamage = itemStack.getDamageValue();
-        int remainingDurability = maxDamage - currentDamage;
+    @Nullable
+    public String getOwnerName() {
+        return this.ownerName;
+    }
 
-        if (remainingDurability <= 0) {
-            return 0;
-        }
+    /**
+     * The owner's UUID, or null for graves placed before owners were recorded.
+     */
+    @Nullable
+    public UUID getOwnerId() {
+        return this.ownerId;
+    }
 
-        int minPercent = GravestoneConfig.MIN_DURABILITY_LOSS_PERCENT.get();
-        int maxPercent = GravestoneConfig.MAX_DURABILITY_LOSS_PERCENT.get();
-        double damageRatio = (minPercent + random.nextInt(Math.max(1, maxPercent - minPercent + 1))) / 100.0;
+    public long getGraveId() {
+        return this.graveId;
+    }
 
-        int damageToApply = Math.max(1, (int) (remainingDurability * damageRatio));
+    public long getCreatedAt() {
+        return this.createdAt;
+    }
 
-        int newDamage = Math.min(maxDamage, currentDamage + damageToApply);
-        itemStack.setDamageValue(newDamage);
+    public int getMaxInventorySize() {
+        return this.layout.size();
+    }
 
-        Gravestones.LOGGER.debug("Applied {} durability damage to {} (was {}/{}, now {}/{}, {}% loss)",
-                damageToApply, itemStack.getDisplayName().getString(),
-                currentDamage, maxDamage, newDamage, maxDamage, (int) (damageRatio * 100));
+    public GraveLayout getLayout() {
+        return this.layout;
+    }
 
-        if (newDamage >= maxDamage) {
-            int originalCount = itemStack.getCount();
-            itemStack.setCount(0);
-            Gravestones.LOGGER.debug("Item {} broke completely and was removed",
-                    itemStack.getDisplayName().getString());
-            return originalCount;
+    private void syncToClients() {
+        if (this.level != null && !this.level.isClientSide) {
+            this.level.sendBlockUpdated(this.getBlockPos(), this.getBlockState(), this.getBlockState(), 3);
         }
-
-        return 0;
     }
 
-    private int applyQuantityLoss(ItemStack itemStack, Random random) {
-        int stackSize = itemStack.getCount();
-        int minPercent = GravestoneConfig.MIN_STACK_LOSS_PERCENT.get();
-        int maxPercent = GravestoneConfig.MAX_STACK_LOSS_PERCENT.get();
-        double lossRatio = (minPercent + random.nextInt(Math.max(1, maxPercent - minPercent + 1))) / 100.0;
-
-        int itemsToLose = Math.max(1, (int) (stackSize * lossRatio));
-        itemsToLose = Math.min(itemsToLose, stackSize);
-
-        itemStack.setCount(stackSize - itemsToLose);
-
-        Gravestones.LOGGER.debug("Lost {} items from stack of {} {} ({}% of stack)",
-                itemsToLose, stackSize, itemStack.getDisplayName().getString(),
-                (int) (lossRatio * 100));
-
-        return itemsToLose;
+    /**
+     * Replaces the layout and gives the grave a fresh, empty inventory of the
+     * matching size.
+     */
+    private void setLayout(GraveLayout layout) {
+        this.layout = layout;
+        this.contentsDirty = true;
+        if (this.itemHandler.getSlots() != layout.size()) {
+            // The automation view looks the handler up on every call, so its capability stays valid
+            this.itemHandler = createItemHandler(layout.size());
+        }
     }
 
-    private boolean isItemBlacklisted(ItemStack itemStack) {
-        ResourceLocation itemId = BuiltInRegistries.ITEM.getKey(itemStack.getItem());
-        String itemIdString = itemId.toString();
-        String namespace = itemId.getNamespace();
-        String path = itemId.getPath();
+    @Nullable
+    @Override
+    public AbstractContainerMenu createMenu(int pContainerId, Inventory pPlayerInventory, Player pPlayer) {
+        return new GravestoneMenu(pContainerId, pPlayerInventory, this, getDecodedItemHandler());
+    }
 
-        List<? extends String> blacklist = GravestoneConfig.ITEM_BLACKLIST.get();
-        for (String blacklistedItem : blacklist) {
-            if (isItemMatchingPattern(itemIdString, namespace, path, blacklistedItem)) {
-                Gravestones.LOGGER.debug("Item {} matched blacklist pattern: {}", itemIdString, blacklistedItem);
-                return true;
+    /**
+     * Automation gets a restricted view of the grave rather than its handler; see
+     * {@link GraveAutomationHandler}. The menu and restore paths use
+     * {@link #getItemHandler()} directly.
+     */
+    @NotNull
+    @Override
+    public <T> LazyOptional<T> getCapability(@NotNull Capability<T> cap, @Nullable Direction side) {
+        if (cap == ForgeCapabilities.ITEM_HANDLER) {
+            if (GravestoneConfig.AUTOMATION_ACCESS.get() == GravestoneConfig.AutomationAccess.DISABLED) {
+                return LazyOptional.empty();
             }
+            return lazyItemHandler.cast();
         }
-
-        return false;
+        return super.getCapability(cap, side);
     }
 
-    private boolean isItemMatchingPattern(String fullItemId, String namespace, String path, String pattern) {
-        if (fullItemId.equals(pattern)) {
-            return true;
+    @Override
+    public void onLoad() {
+        super.onLoad();
+        lazyItemHandler = LazyOptional.of(() -> this.automationHandler);
+
+        if (this.level instanceof ServerLevel serverLevel && this.graveId != 0) {
+            // No-op unless the registry lost this grave
+            GraveRegistry registry = GraveRegistry.get(serverLevel.getServer());
+            registry.restore(this.graveId, registryOwner(), serverLevel.dimension(), this.worldPosition,
+                    this.createdAt, countItems());
+            if (registry.isExpiryPending(this.graveId)) {
+                // Expired while unloaded; finish once the chunk is fully in place, unless a merge renewed it
+                runNextTick(serverLevel, () -> {
+                    if (registry.isExpiryPending(this.graveId)) {
+                        expire();
+                    }
+                });
+            }
+        } else if (this.level instanceof ServerLevel serverLevel && this.loadedFromSave) {
+            // Graves from before the registry are registered the first time their chunk loads
+            this.createdAt = serverLevel.getGameTime();
+            this.graveId = GraveRegistry.get(serverLevel.getServer()).register(registryOwner(),
+                    serverLevel.dimension(), this.worldPosition, this.createdAt, countItems());
+            setChanged();
         }
+    }
 
-        if (!pattern.contains("*")) {
-            return false;
-        }
+    private UUID registryOwner() {
+        return this.ownerId != null ? this.ownerId : Util.NIL_UUID;
+    }
 
-        String[] patternParts = pattern.split(":", 2);
-        if (patternParts.length != 2) {
-            return false;
+    /**
+     * Items in the grave, for the registry. A grave that has not been decoded is
+     * counted from its saved stack counts, rather than decoding it during chunk
+     * load.
+     */
+    private int countItems() {
+        if (this.storePending) {
+            return this.storedItems;
         }
+        return this.retainedInventory != null ? GraveInventoryCodec.countItems(this.retainedInventory)
+                : this.itemHandler.getTotalItems();
+    }
 
-        String namespacePattern = patternParts[0];
-        String pathPattern = patternParts[1];
-
-        if (!namespacePattern.equals("*") && !matchesWildcard(namespace, namespacePattern)) {
-            return false;
+    /**
+     * Called by the block when the grave is broken or replaced, as opposed to
+     * merely unloaded with its chunk.
+     */
+    public void onGraveRemoved() {
+        if (this.graveId != 0 && this.level instanceof ServerLevel serverLevel) {
+            GraveRegistry.get(serverLevel.getServer()).unregister(this.graveId);
+            deleteStored();
+            this.graveId = 0;
         }
+    }
 
-        if (!pathPattern.equals("*") && !matchesWildcard(path, pathPattern)) {
-            return false;
+    private void deleteStored() {
+        GraveStore store = GraveStores.get();
+        if (this.contentsStored && store != null) {
+            // The record's shared tags are only known once it has been fetched
+            fetchStored();
+            store.delete(this.graveId);
+            BlobStore blobs = GraveStores.blobs();
+            if (blobs != null) {
+                blobs.release(this.storedShared);
+            }
         }
-
-        return true;
+        this.contentsStored = false;
+        this.storedShared = new LongArrayList();
     }
 
-    private boolean matchesWildcard(String text, String pattern) {
-        String regexPattern = pattern
-                .replace("\\", "\\\\")
-                .replace(".", "\\.")
-                .replace("+", "\\+")
-                .replace("?", "\\?")
-                .replace("^", "\\^")
-                .replace("$", "\\$")
-                .replace("|", "\\|")
-                .replace("{", "\\{")
-                .replace("}", "\\}")
-                .replace("[", "\\[")
-                .replace("]", "\\]")
-                .replace("(", "\\(")
-                .replace(")", "\\)")
-                .replace("*", ".*");
-
-        try {
-            return text.matches(regexPattern);
-        } catch (Exception e) {
-            Gravestones.LOGGER.warn("Invalid wildcard pattern '{}': {}", pattern, e.getMessage());
-            return text.equals(pattern);
-        }
+    @Override
+    public void invalidateCaps() {
+        super.invalidateCaps();
+        lazyItemHandler.invalidate();
     }
 
-    private int[] applyCuriosItemLoss(Player player, Random random) {
-        try {
-            Class<?> curiosApiClass = Class.forName("top.theillusivec4.curios.api.CuriosApi");
-            Object curiosInventory = curiosApiClass.getMethod("getCuriosInventory", Player.class)
-                    .invoke(null, player);
+    public void setItemsOnDeath(DeathSnapshot snapshot) {
+        getDecodedItemHandler();
+        RandomSource random = this.level != null ? this.level.getRandom() : RandomSource.create();
+        ItemLossEngine.get().apply(snapshot, DeathSettings.get(), random);
 
-            if (curiosInventory == null) {
-                return new int[] { 0, 0 };
-            }
+        this.ownerId = snapshot.getOwnerId();
 
-            Object handler = curiosInventory.getClass().getMethod("orElse", Object.class)
-                    .invoke(curiosInventory, null);
+        GraveLayout newLayout = snapshot.getLayout();
+        if (newLayout.size() != this.layout.size()) {
+            Gravestones.LOGGER.debug("Resizing gravestone inventory from {} to {} slots for player {}",
+                    this.layout.size(), newLayout.size(), snapshot.getOwnerName());
+        }
+        try (Edit edit = edit()) {
+            setLayout(newLayout);
 
-            if (handler == null) {
-                return new int[] { 0, 0 };
+            // The snapshot owns the player's original stacks, so they are moved in rather than copied
+            for (int i = 0; i < newLayout.size(); i++) {
+                ItemStack stack = snapshot.get(i);
+                if (!stack.isEmpty()) {
+                    this.itemHandler.setStackInSlot(i, stack);
+                    snapshot.set(i, ItemStack.EMPTY);
+                }
             }
 
-            Object curios = handler.getClass().getMethod("getCurios").invoke(handler);
-            java.util.Map<?, ?> curiosMap = (java.util.Map<?, ?>) curios;
-
-            List<ItemStack> curiosItems = new ArrayList<>();
-            List<Object[]> curiosItemHandlers = new ArrayList<>();
-
-            for (Object curiosSlots : curiosMap.values()) {
-                Object itemHandler = curiosSlots.getClass().getMethod("getStacks").invoke(curiosSlots);
-                int slots = (Integer) itemHandler.getClass().getMethod("getSlots").invoke(itemHandler);
-
-                for (int i = 0; i < slots; i++) {
-                    java.lang.reflect.Method stackMethod = itemHandler.getClass().getMethod("getStackInSlot",
-                            int.class);
-                    ItemStack itemStack = (ItemStack) stackMethod.invoke(itemHandler, i);
-
-                    if (!itemStack.isEmpty()) {
-                        curiosItems.add(itemStack);
-                        curiosItemHandlers.add(new Object[] { itemHandler, i });
-                    }
+            if (this.level instanceof ServerLevel serverLevel) {
+                GraveRegistry registry = GraveRegistry.get(serverLevel.getServer());
+                if (this.graveId != 0) {
+                    registry.unregister(this.graveId);
+                    deleteStored();
                 }
+                this.createdAt = serverLevel.getGameTime();
+                this.graveId = registry.register(this.ownerId, serverLevel.dimension(), this.worldPosition,
+                        this.createdAt, this.itemHandler.getTotalItems());
             }
+            edit.sync();
+        }
+    }
 
-            int minSlotsPercent = GravestoneConfig.MIN_SLOTS_LOST_PERCENT.get();
-            int maxSlotsPercent = GravestoneConfig.MAX_SLOTS_LOST_PERCENT.get();
-            int slotPercentage = minSlotsPercent + random.nextInt(Math.max(1, maxSlotsPercent - minSlotsPercent + 1));
-            int itemsToAffect = Math.min(curiosItems.size(),
-                    Math.max(1, (curiosItems.size() * slotPercentage) / 100));
+    /**
+     * Merges another death of the owner into this grave instead of placing a
+     * second one next to it; see {@link GraveMerge}. Growing the layout replaces
+     * the item handler, so menus open on the grave are closed first. The grave's
+     * lifetime restarts from the merge.
+     *
+     * @return false, with nothing changed, if the grave could grow past
+     *         {@link GravestoneConfig#MERGE_MAX_SLOTS}
+     */
+    public boolean mergeDeath(DeathSnapshot snapshot) {
+        if (!(this.level instanceof ServerLevel serverLevel) || this.isRemoved()) {
+            return false;
+        }
 
-            List<Integer> indices = new ArrayList<>();
-            for (int i = 0; i < curiosItems.size(); i++) {
-                indices.add(i);
+        int incoming = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (!snapshot.get(i).isEmpty()) {
+                incoming++;
             }
-            Collections.shuffle(indices, random);
-
-            int itemsLost = 0;
-            int stacksAffected = 0;
+        }
+        // At most one new slot per incoming stack, so checking that bound keeps the grave under the limit
+        if (this.layout.size() + incoming > GravestoneConfig.MERGE_MAX_SLOTS.get()) {
+            return false;
+        }
 
-            for (int i = 0; i < Math.min(itemsToAffect, indices.size()); i++) {
-                int index = indices.get(i);
-                ItemStack itemStack = curiosItems.get(index);
-                Object[] handlerInfo = curiosItemHandlers.get(index);
-                Object itemHandler = handlerInfo[0];
-                int slot = (Integer) handlerInfo[1];
+        GraveItemHandler handler = getDecodedItemHandler();
+        ItemLossEngine.get().apply(snapshot, DeathSettings.get(), serverLevel.getRandom());
 
-                if (isItemBlacklisted(itemStack)) {
-                    continue;
+        GraveLayout snapshotLayout = snapshot.getLayout();
+        try (Edit edit = edit()) {
+            GraveMerge merge = new GraveMerge(this.layout, handler);
+            for (int i = 0; i < snapshot.size(); i++) {
+                ItemStack stack = snapshot.get(i);
+                if (!stack.isEmpty()) {
+                    snapshot.set(i, ItemStack.EMPTY);
+                    merge.place(stack, snapshotLayout.getGroup(snapshotLayout.getGroupIndex(i)),
+                            snapshotLayout.getSourceSlot(i));
                 }
+            }
 
-                if (GravestoneConfig.PROTECT_ENCHANTED_ITEMS.get() && !itemStack.getEnchantmentTags().isEmpty()) {
-                    int protection = GravestoneConfig.ENCHANTED_ITEM_PROTECTION.get();
-
-                    if (random.nextInt(100) < protection) {
-                        continue;
+            GraveLayout grown = merge.grownLayout();
+            if (grown != null) {
+                for (ServerPlayer player : serverLevel.players()) {
+                    if (player.containerMenu instanceof GravestoneMenu menu && menu.getBlockEntity() == this) {
+                        player.closeContainer();
                     }
                 }
-
-                int lost = 0;
-                if (itemStack.isDamageableItem()) {
-                    lost = applyDurabilityLoss(itemStack, random);
-                } else {
-                    lost = applyQuantityLoss(itemStack, random);
-                }
-
-                if (lost > 0) {
-                    itemsLost += lost;
-                    stacksAffected++;
-                }
-
-                java.lang.reflect.Method setStackMethod = itemHandler.getClass().getMethod("setStackInSlot", int.class,
-                        ItemStack.class);
-                setStackMethod.invoke(itemHandler, slot, itemStack);
+                Gravestones.LOGGER.debug("Growing gravestone {} from {} to {} slots to merge a death",
+                        this.graveId, this.layout.size(), grown.size());
+                GraveItemHandler target = createItemHandler(grown.size());
+                merge.grow(grown, target);
+                this.layout = grown;
+                this.itemHandler = target;
             }
 
-            return new int[] { itemsLost, stacksAffected };
-        } catch (Exception e) {
-            Gravestones.LOGGER.warn("Failed to apply item loss to curios items: {}", e.getMessage());
-            return new int[] { 0, 0 };
+            this.createdAt = serverLevel.getGameTime();
+            GraveRegistry.get(serverLevel.getServer()).renew(this.graveId, this.createdAt);
+            edit.sync();
         }
+        return true;
     }
 
     public ItemStackHandler getInternalItemHandler() {
-        return this.itemHandler;
+        return getDecodedItemHandler();
     }
 
     public void transferItemsToPlayer(Player player) {
         if (this.level == null || this.level.isClientSide)
             return;
 
-        ModIntegration.restorePlayerInventory(player, this.itemHandler);
-
-        this.setCuriosItemCount(0);
-        setChanged();
+        try (Edit edit = edit()) {
+            ModIntegration.restorePlayerInventory(player, getDecodedItemHandler(), this.layout);
+            edit.sync();
+        }
     }
 
     public void dropAllItems(@NotNull Level level, BlockPos pos) {
+        GraveItemHandler itemHandler = getDecodedItemHandler();
+        if (itemHandler.isEmpty()) {
+            return;
+        }
+
         SimpleContainer inventoryForDropping = new SimpleContainer(itemHandler.getSlots());
-        for (int i = 0; i < itemHandler.getSlots(); i++) {
-            inventoryForDropping.setItem(i, itemHandler.getStackInSlot(i));
-            itemHandler.setStackInSlot(i, ItemStack.EMPTY);
+        try (Edit edit = edit()) {
+            for (int i = itemHandler.nextOccupied(0); i >= 0; i = itemHandler.nextOccupied(i + 1)) {
+                inventoryForDropping.setItem(i, itemHandler.getStackInSlot(i));
+                itemHandler.setStackInSlot(i, ItemStack.EMPTY);
+            }
+            edit.sync();
         }
         Containers.dropContents(level, pos, inventoryForDropping);
-
-        this.setCuriosItemCount(0);
-        setChanged();
     }
 
     public IItemHandler getItemHandler() {
-        return itemHandler;
+        return getDecodedItemHandler();
     }
 
     @Override
@@ -609,44 +666,149 @@ public class GravestoneBlockEntity extends BlockEntity implements MenuProvider {
     @Override
     protected void saveAdditional(CompoundTag pTag) {
         super.saveAdditional(pTag);
-        pTag.put("inventory", itemHandler.serializeNBT());
-        pTag.putInt("maxInventorySize", this.maxInventorySize);
+        GraveStore store = GraveStores.get();
+        if (this.storePending && store == null) {
+            // Contents that cannot be fetched right now are still in the store; keep pointing at them
+            pTag.putBoolean(TAG_STORED, true);
+            pTag.putInt("Occupied", this.storedOccupied);
+            pTag.putInt("Items", this.storedItems);
+        } else if (this.graveId != 0 && GraveStores.isOffChunk() && saveToStore(store)) {
+            // Only the reference goes in the chunk
+            pTag.putBoolean(TAG_STORED, true);
+            pTag.putInt("Occupied", countOccupiedSlots());
+            pTag.putInt("Items", countItems());
+        } else {
+            fetchStored();
+            saveInventoryInline(pTag);
+        }
+        pTag.putInt("Signal", peekComparatorSignal());
         if (this.ownerName != null) {
             pTag.putString("OwnerName", this.ownerName);
         }
-        pTag.putInt("CuriosItemCount", this.curiosItemCount);
+        if (this.ownerId != null) {
+            pTag.putUUID("OwnerUUID", this.ownerId);
+        }
+        if (this.graveId != 0) {
+            pTag.putLong("GraveId", this.graveId);
+            pTag.putLong("CreatedAt", this.createdAt);
+        }
+        pTag.put(GraveLayout.TAG_LAYOUT, this.layout.save());
     }
 
-    @Override
-    public void load(CompoundTag pTag) {
-        super.load(pTag);
+    /**
+     * Writes the contents to {@code store} if they changed since they were last
+     * written there.
+     *
+     * @return false if they could not be written, in which case they should be
+     *         saved with the chunk instead
+     */
+    private boolean saveToStore(GraveStore store) {
+        if (this.storePending || (!this.contentsDirty && this.contentsStored)) {
+            return true;
+        }
 
-        int savedInventorySize = pTag.contains("maxInventorySize") ? pTag.getInt("maxInventorySize")
-                : ModIntegration.calculateInventorySize();
+        // Contents retained as they were loaded keep the record's shared tags as they are
+        boolean rewrite = this.retainedInventory == null || this.retainedLegacy;
+        BlobStore blobs = GraveStores.blobs();
+        LongArrayList shared = new LongArrayList();
+        try {
+            store.save(this.graveId, saveContents(blobs, shared));
+        } catch (UncheckedIOException e) {
+            Gravestones.LOGGER.error("Failed to save gravestone {} to the grave store, saving it with its chunk: {}",
+                    this.graveId, e.getMessage());
+            return false;
+        }
+        if (rewrite && blobs != null) {
+            // Take the new references before dropping the old, so tags kept across the rewrite survive
+            blobs.retain(shared);
+            blobs.release(this.storedShared);
+            this.storedShared = shared;
+        }
+        this.contentsStored = true;
+        this.contentsDirty = false;
+        return true;
+    }
 
-        if (savedInventorySize != this.maxInventorySize) {
-            this.maxInventorySize = savedInventorySize;
+    private void saveInventoryInline(CompoundTag pTag) {
+        if (this.retainedInventory != null && !this.retainedLegacy
+                && !GraveInventoryCodec.sharedKeys(this.retainedInventory).isEmpty()) {
+            // Fetched from the store with shared tags, which the chunk has to hold in full
+            getDecodedItemHandler();
+        }
 
-            ItemStackHandler newHandler = new ItemStackHandler(this.maxInventorySize) {
-                @Override
-                protected void onContentsChanged(int slot) {
-                    setChanged();
-                }
-            };
+        // A retained inventory was never decoded, so never modified: write back exactly what was loaded
+        if (this.retainedInventory == null) {
+            pTag.put(GraveInventoryCodec.TAG_GRAVE, GraveInventoryCodec.write(this.itemHandler));
+        } else if (this.retainedLegacy) {
+            pTag.put(GraveInventoryCodec.TAG_LEGACY_INVENTORY, this.retainedInventory);
+            pTag.putInt(GraveInventoryCodec.TAG_LEGACY_SIZE, this.layout.size());
+        } else {
+            pTag.put(GraveInventoryCodec.TAG_GRAVE, this.retainedInventory);
+        }
+    }
 
-            this.itemHandler = newHandler;
-            this.lazyItemHandler.invalidate();
-            this.lazyItemHandler = LazyOptional.of(() -> this.itemHandler);
+    /**
+     * The contents as written to the {@link GraveStore}. Retained current-format
+     * contents go in as loaded; legacy ones are decoded so the store only ever
+     * holds the current format. Large item tags are shared through
+     * {@code blobs}, adding their keys to {@code shared}.
+     */
+    private CompoundTag saveContents(@Nullable BlobStore blobs, LongArrayList shared) {
+        CompoundTag contents = new CompoundTag();
+        if (this.retainedInventory != null && !this.retainedLegacy) {
+            contents.put(GraveInventoryCodec.TAG_GRAVE, this.retainedInventory);
+        } else {
+            contents.put(GraveInventoryCodec.TAG_GRAVE,
+                    GraveInventoryCodec.write(getDecodedItemHandler(), blobs, shared));
         }
+        return contents;
+    }
+
+    @Override
+    public void load(CompoundTag pTag) {
+        super.load(pTag);
 
-        itemHandler.deserializeNBT(pTag.getCompound("inventory"));
+        boolean currentFormat = GraveInventoryCodec.isCurrent(pTag);
+        CompoundTag graveTag = pTag.getCompound(GraveInventoryCodec.TAG_GRAVE);
+
+        GraveLayout savedLayout;
+        if (GraveLayout.isSaved(pTag)) {
+            savedLayout = GraveLayout.load(pTag.getList(GraveLayout.TAG_LAYOUT, Tag.TAG_COMPOUND));
+        } else if (currentFormat) {
+            savedLayout = GraveLayout.legacy(GraveInventoryCodec.readSize(graveTag));
+        } else if (pTag.contains(GraveInventoryCodec.TAG_LEGACY_SIZE)) {
+            savedLayout = GraveLayout.legacy(pTag.getInt(GraveInventoryCodec.TAG_LEGACY_SIZE));
+        } else {
+            savedLayout = GraveLayout.legacy(ModIntegration.calculateInventorySize());
+        }
+        setLayout(savedLayout);
+
+        // Items are only decoded once something actually needs them; see getDecodedItemHandler
+        this.storedSignal = pTag.contains("Signal", Tag.TAG_INT) ? pTag.getInt("Signal") : -1;
+        this.contentsStored = pTag.getBoolean(TAG_STORED);
+        this.storePending = this.contentsStored;
+        this.contentsDirty = !this.contentsStored;
+        if (this.contentsStored) {
+            this.retainedInventory = null;
+            this.storedOccupied = pTag.getInt("Occupied");
+            this.storedItems = pTag.getInt("Items");
+        } else if (currentFormat) {
+            this.retainedInventory = graveTag;
+            this.retainedLegacy = false;
+        } else {
+            this.retainedInventory = pTag.getCompound(GraveInventoryCodec.TAG_LEGACY_INVENTORY);
+            this.retainedLegacy = true;
+        }
 
         if (pTag.contains("OwnerName", CompoundTag.TAG_STRING)) {
             this.ownerName = pTag.getString("OwnerName");
         } else {
             this.ownerName = null;
         }
-        this.curiosItemCount = pTag.getInt("CuriosItemCount");
+        this.ownerId = pTag.hasUUID("OwnerUUID") ? pTag.getUUID("OwnerUUID") : null;
+        this.loadedFromSave = true;
+        this.graveId = pTag.getLong("GraveId");
+        this.createdAt = pTag.getLong("CreatedAt");
     }
 
     @Override
@@ -654,77 +816,75 @@ public class GravestoneBlockEntity extends BlockEntity implements MenuProvider {
         return ClientboundBlockEntityDataPacket.create(this);
     }
 
+    /**
+     * Clients tracking the chunk only get what they need to render the grave and
+     * size its menu. The contents themselves are synced through the menu slots
+     * when a player actually opens the grave.
+     */
     @Override
     public CompoundTag getUpdateTag() {
-        return this.saveWithoutMetadata();
+        CompoundTag tag = new CompoundTag();
+        if (this.ownerName != null) {
+            tag.putString("OwnerName", this.ownerName);
+        }
+        tag.put(GraveLayout.TAG_LAYOUT, this.layout.save());
+        tag.putInt("Occupied", countOccupiedSlots());
+        return tag;
     }
 
     @Override
-    public void onDataPacket(Connection connection, ClientboundBlockEntityDataPacket packet) {
-        this.load(packet.getTag());
+    public void handleUpdateTag(CompoundTag tag) {
+        loadClientData(tag);
     }
 
-    private void handleCurseOfVanishing(List<ItemStack> allItems, List<Object> itemSources, Player player) {
-        for (int i = allItems.size() - 1; i >= 0; i--) {
-            ItemStack stack = allItems.get(i);
-
-            if (EnchantmentHelper.hasVanishingCurse(stack)) {
-                Object source = itemSources.get(i);
-                ItemStack emptyStack = ItemStack.EMPTY;
-                updateItemSource(source, emptyStack, player);
-
-                allItems.remove(i);
-                itemSources.remove(i);
-
-                Gravestones.LOGGER.debug("Item {} disappeared due to Curse of Vanishing for player {}",
-                        stack.getDisplayName().getString(), player.getName().getString());
-            }
+    @Override
+    public void onDataPacket(Connection connection, ClientboundBlockEntityDataPacket packet) {
+        CompoundTag tag = packet.getTag();
+        if (tag != null) {
+            loadClientData(tag);
         }
     }
 
-    private void applyCursesToItems(List<ItemStack> allItems, Random random) {
-        int curseChance = GravestoneConfig.CURSE_APPLICATION_CHANCE.get();
-        if (curseChance <= 0) {
-            return;
+    private void loadClientData(CompoundTag tag) {
+        if (tag.contains("OwnerName", CompoundTag.TAG_STRING)) {
+            this.ownerName = tag.getString("OwnerName");
+        } else {
+            this.ownerName = null;
         }
-
-        List<String> availableCurses = (List<String>) GravestoneConfig.AVAILABLE_CURSES.get();
-
-        if (availableCurses.isEmpty()) {
-            return;
+        this.occupiedSlots = tag.getInt("Occupied");
+        if (GraveLayout.isSaved(tag)) {
+            prepareClientInventory(GraveLayout.load(tag.getList(GraveLayout.TAG_LAYOUT, Tag.TAG_COMPOUND)));
         }
+    }
 
-        for (ItemStack stack : allItems) {
-            if (stack.getEnchantmentTags().isEmpty()) {
-                continue;
-            }
-
-            if (random.nextInt(100) >= curseChance) {
-                continue;
-            }
-
-            String selectedCurse = availableCurses.get(random.nextInt(availableCurses.size()));
-            ResourceLocation curseLocation = ResourceLocation.tryParse(selectedCurse);
-
-            if (curseLocation == null) {
-                Gravestones.LOGGER.warn("Invalid curse enchantment ID: {}", selectedCurse);
-                continue;
-            }
-
-            Enchantment enchantment = BuiltInRegistries.ENCHANTMENT.get(curseLocation);
-            if (enchantment == null) {
-                Gravestones.LOGGER.warn("Enchantment not found in registry: {}", selectedCurse);
-                continue;
-            }
+    /**
+     * Sizes the client-side inventory so the menu gets one slot per grave slot;
+     * the slot contents arrive through regular menu synchronisation.
+     */
+    public void prepareClientInventory(GraveLayout layout) {
+        setLayout(layout);
+    }
 
-            if (EnchantmentHelper.getItemEnchantmentLevel(enchantment, stack) > 0) {
-                continue;
-            }
+    public void writeMenuData(FriendlyByteBuf buf) {
+        buf.writeBlockPos(this.getBlockPos());
+        this.layout.write(buf);
+    }
 
-            stack.enchant(enchantment, 1);
+    public int getOccupiedSlots() {
+        if (this.level != null && !this.level.isClientSide) {
+            return countOccupiedSlots();
+        }
+        return this.occupiedSlots;
+    }
 
-            Gravestones.LOGGER.debug("Applied curse {} to item {} for player on death",
-                    selectedCurse, stack.getDisplayName().getString());
+    private int countOccupiedSlots() {
+        if (this.storePending) {
+            return this.storedOccupied;
         }
+        if (this.retainedInventory != null) {
+            return GraveInventoryCodec.countOccupied(this.retainedInventory);
+        }
+
+        return this.itemHandler.getOccupiedSlots();
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,8 @@ package es.boopurno.gravestones.client.gui;
 
 import es.boopurno.gravestones.Gravestones;
 import es.boopurno.gravestones.block.entity.GravestoneBlockEntity;
+import es.boopurno.gravestones.grave.GraveLayout;
+import es.boopurno.gravestones.grave.GraveSlotGroup;
 import es.boopurno.gravestones.menu.GravestoneMenu;
 import es.boopurno.gravestones.network.PacketHandler;
 import es.boopurno.gravestones.network.serverbound.ServerboundTransferItemsPacket;
@@ -23,17 +25,7 @@ public class GravestoneScreen extends AbstractContainerScreen<GravestoneMenu> {
     private static final ResourceLocation SLOT_TEXTURE = new ResourceLocation(Gravestones.MODID,
             "textures/gui/slot.png");
 
-    private static final ResourceLocation EMPTY_ARMOR_SLOT_HELMET = new ResourceLocation("minecraft",
-            "textures/item/empty_armor_slot_helmet.png");
-    private static final ResourceLocation EMPTY_ARMOR_SLOT_CHESTPLATE = new ResourceLocation("minecraft",
-            "textures/item/empty_armor_slot_chestplate.png");
-    private static final ResourceLocation EMPTY_ARMOR_SLOT_LEGGINGS = new ResourceLocation("minecraft",
-            "textures/item/empty_armor_slot_leggings.png");
-    private static final ResourceLocation EMPTY_ARMOR_SLOT_BOOTS = new ResourceLocation("minecraft",
-            "textures/item/empty_armor_slot_boots.png");
-    private static final ResourceLocation EMPTY_ARMOR_SLOT_SHIELD = new ResourceLocation("minecraft",
-            "textures/item/empty_armor_slot_shield.png");
-
+    private final GraveLayout layout;
     private final boolean hasCosmeticArmor;
     private final boolean hasCurios;
     private final int yOffset;
@@ -42,10 +34,11 @@ public class GravestoneScreen extends AbstractContainerScreen<GravestoneMenu> {
         super(pMenu, pPlayerInventory, pTitle);
 
         GravestoneBlockEntity blockEntity = pMenu.getBlockEntity();
-        this.hasCosmeticArmor = blockEntity != null && blockEntity.hasCosmeticArmor();
-        this.hasCurios = blockEntity != null && blockEntity.hasCurios();
+        this.layout = blockEntity != null ? blockEntity.getLayout() : GraveLayout.VANILLA;
+        this.hasCosmeticArmor = layout.hasHeader();
+        this.hasCurios = layout.getPanelSlots() > 0;
 
-        this.yOffset = hasCosmeticArmor ? 18 : 0;
+        this.yOffset = layout.getYOffset();
 
         this.imageWidth = 176;
         this.imageHeight = hasCosmeticArmor ? 256 : 238;
@@ -98,25 +91,20 @@ public class GravestoneScreen extends AbstractContainerScreen<GravestoneMenu> {
     }
 
     private void renderCosmeticArmorSlots(GuiGraphics pGuiGraphics, int x, int y) {
-        int startX = x + 7;
-        int startY = y + 17;
-
-        for (int i = 0; i < 4; i++) {
-            int slotX = startX + (i * 18);
-            pGuiGraphics.blit(SLOT_TEXTURE, slotX, startY, 0, 0, 18, 18, 18, 18);
+        for (int slot = 0; slot < layout.size(); slot++) {
+            if (layout.isInArea(slot, GraveSlotGroup.Area.HEADER)) {
+                pGuiGraphics.blit(SLOT_TEXTURE, x + layout.getSlotX(slot) - 1, y + layout.getSlotY(slot) - 1, 0, 0,
+                        18, 18, 18, 18);
+            }
         }
     }
 
     private void renderCuriosSlots(GuiGraphics pGuiGraphics, int x, int y) {
-        GravestoneBlockEntity blockEntity = this.menu.getBlockEntity();
-        if (blockEntity == null)
-            return;
-
-        int curiosCount = blockEntity.getCuriosItemCount();
+        int curiosCount = layout.getPanelSlots();
         if (curiosCount == 0)
             return;
 
-        int slotsPerColumn = 6;
+        int slotsPerColumn = GraveLayout.getPanelRows();
         int columns = (curiosCount + slotsPerColumn - 1) / slotsPerColumn;
         int rows = Math.min(curiosCount, slotsPerColumn);
 
@@ -128,16 +116,11 @@ public class GravestoneScreen extends AbstractContainerScreen<GravestoneMenu> {
 
         renderCuriosPanel(pGuiGraphics, panelX, panelY, panelWidth, panelHeight);
 
-        for (int i = 0; i < curiosCount; i++) {
-            int column = i / slotsPerColumn;
-            int row = i % slotsPerColumn;
-
-            int reversedColumn = columns - 1 - column;
-
-            int slotX = panelX + 7 + reversedColumn * 18;
-            int slotY = panelY + 7 + row * 18;
-
-            pGuiGraphics.blit(SLOT_TEXTURE, slotX, slotY, 0, 0, 18, 18, 18, 18);
+        for (int slot = 0; slot < layout.size(); slot++) {
+            if (layout.isInArea(slot, GraveSlotGroup.Area.PANEL)) {
+                pGuiGraphics.blit(SLOT_TEXTURE, x + layout.getSlotX(slot) - 1, y + layout.getSlotY(slot) - 1, 0, 0,
+                        18, 18, 18, 18);
+            }
         }
     }
 
@@ -194,46 +177,11 @@ public class GravestoneScreen extends AbstractContainerScreen<GravestoneMenu> {
     }
 
     private void renderEmptyArmorSlotIcons(GuiGraphics pGuiGraphics, int x, int y) {
-        int armorY = y + 18 + yOffset;
-
-        ResourceLocation[] armorSlotTextures = {
-                EMPTY_ARMOR_SLOT_BOOTS,
-                EMPTY_ARMOR_SLOT_LEGGINGS,
-                EMPTY_ARMOR_SLOT_CHESTPLATE,
-                EMPTY_ARMOR_SLOT_HELMET,
-                EMPTY_ARMOR_SLOT_SHIELD
-        };
-
-        for (int i = 0; i < armorSlotTextures.length; i++) {
-            int slotIndex = 36 + i;
-            if (slotIndex < this.menu.slots.size()) {
-                if (this.menu.slots.get(slotIndex).getItem().isEmpty()) {
-                    int slotX = x + 8 + (i * 18);
-                    int slotY = armorY;
-
-                    try {
-                        pGuiGraphics.blit(armorSlotTextures[i], slotX, slotY, 0, 0, 16, 16, 16, 16);
-                    } catch (Exception e) {
-                    }
-                }
-            }
-        }
-
-        if (hasCosmeticArmor) {
-            int cosmeticArmorY = y + 18;
-            for (int i = 0; i < 4; i++) {
-                int slotIndex = 41 + i;
-                if (slotIndex < this.menu.slots.size()) {
-                    if (this.menu.slots.get(slotIndex).getItem().isEmpty()) {
-                        int slotX = x + 8 + (i * 18);
-                        int slotY = cosmeticArmorY;
-
-                        try {
-                            pGuiGraphics.blit(armorSlotTextures[i], slotX, slotY, 0, 0, 16, 16, 16, 16);
-                        } catch (Exception e) {
-                        }
-                    }
-                }
+        int slots = Math.min(layout.size(), this.menu.slots.size());
+        for (int slot = 0; slot < slots; slot++) {
+            ResourceLocation icon = layout.getEmptyIcon(slot);
+            if (icon != null && this.menu.slots.get(slot).getItem().isEmpty()) {
+                pGuiGraphics.blit(icon, x + layout.getSlotX(slot), y + layout.getSlotY(slot), 0, 0, 16, 16, 16, 16);
             }
         }
     }
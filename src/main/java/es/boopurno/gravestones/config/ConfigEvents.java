@@ -0,0 +1,25 @@
+package es.boopurno.gravestones.config;
+
+import es.boopurno.gravestones.Gravestones;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.config.ModConfigEvent;
+
+@Mod.EventBusSubscriber(modid = Gravestones.MODID, bus = Mod.EventBusSubscriber.Bus.MOD)
+public class ConfigEvents {
+
+    @SubscribeEvent
+    public static void onConfigLoading(ModConfigEvent.Loading event) {
+        if (event.getConfig().getSpec() == GravestoneConfig.SPEC) {
+            DeathSettings.rebuild();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onConfigReloading(ModConfigEvent.Reloading event) {
+        if (event.getConfig().getSpec() == GravestoneConfig.SPEC) {
+            DeathSettings.rebuild();
+            Gravestones.LOGGER.debug("Gravestones config reloaded");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package es.boopurno.gravestones.config;
+
+import es.boopurno.gravestones.Gravestones;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.enchantment.Enchantment;
+import net.minecraftforge.event.TagsUpdatedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolved, immutable view of the config values used when a player dies.
+ * <p>
+ * Built once per config load or reload instead of reading each
+ * {@link net.minecraftforge.common.ForgeConfigSpec} value per stack. Curse ids
+ * are resolved to {@link Enchantment}s and the blacklist is compiled up front,
+ * and a new instance is swapped in whole so a death never sees half of an edit.
+ */
+@Mod.EventBusSubscriber(modid = Gravestones.MODID)
+public final class DeathSettings {
+    private static volatile DeathSettings current;
+
+    public final boolean enableItemLoss;
+    public final int minSlotsLostPercent;
+    public final int maxSlotsLostPercent;
+    public final int minStackLossPercent;
+    public final int maxStackLossPercent;
+    public final int minDurabilityLossPercent;
+    public final int maxDurabilityLossPercent;
+    public final ItemBlacklist blacklist;
+    public final boolean affectCuriosItems;
+    public final boolean protectEnchantedItems;
+    public final int enchantedItemProtection;
+    public final boolean respectCurseOfVanishing;
+    public final boolean enableCurseApplication;
+    public final int curseApplicationChance;
+    public final List<Enchantment> curses;
+
+    private DeathSettings() {
+        this.enableItemLoss = GravestoneConfig.ENABLE_ITEM_LOSS.get();
+        this.minSlotsLostPercent = GravestoneConfig.MIN_SLOTS_LOST_PERCENT.get();
+        this.maxSlotsLostPercent = GravestoneConfig.MAX_SLOTS_LOST_PERCENT.get();
+        this.minStackLossPercent = GravestoneConfig.MIN_STACK_LOSS_PERCENT.get();
+        this.maxStackLossPercent = GravestoneConfig.MAX_STACK_LOSS_PERCENT.get();
+        this.minDurabilityLossPercent = GravestoneConfig.MIN_DURABILITY_LOSS_PERCENT.get();
+        this.maxDurabilityLossPercent = GravestoneConfig.MAX_DURABILITY_LOSS_PERCENT.get();
+        this.blacklist = ItemBlacklist.compile(GravestoneConfig.ITEM_BLACKLIST.get());
+        this.affectCuriosItems = GravestoneConfig.AFFECT_CURIOS_ITEMS.get();
+        this.protectEnchantedItems = GravestoneConfig.PROTECT_ENCHANTED_ITEMS.get();
+        this.enchantedItemProtection = GravestoneConfig.ENCHANTED_ITEM_PROTECTION.get();
+        this.respectCurseOfVanishing = GravestoneConfig.RESPECT_CURSE_OF_VANISHING.get();
+        this.enableCurseApplication = GravestoneConfig.ENABLE_CURSE_APPLICATION.get();
+        this.curseApplicationChance = GravestoneConfig.CURSE_APPLICATION_CHANCE.get();
+        this.curses = resolveCurses(GravestoneConfig.AVAILABLE_CURSES.get());
+    }
+
+    public static DeathSettings get() {
+        DeathSettings settings = current;
+        if (settings == null) {
+            // Deaths only happen in a running world, long after the config has loaded
+            settings = new DeathSettings();
+            current = settings;
+        }
+        return settings;
+    }
+
+    public static void rebuild() {
+        current = new DeathSettings();
+    }
+
+    @SubscribeEvent
+    public static void onTagsUpdated(TagsUpdatedEvent event) {
+        // Tag membership may have changed, which invalidates the blacklist's cached answers
+        rebuild();
+    }
+
+    private static List<Enchantment> resolveCurses(List<? extends String> curseIds) {
+        List<Enchantment> curses = new ArrayList<>(curseIds.size());
+        for (String curseId : curseIds) {
+            ResourceLocation curseLocation = ResourceLocation.tryParse(curseId);
+            if (curseLocation == null) {
+                Gravestones.LOGGER.warn("Invalid curse enchantment ID: {}", curseId);
+                continue;
+            }
+
+            Enchantment enchantment = BuiltInRegistries.ENCHANTMENT.getOptional(curseLocation).orElse(null);
+            if (enchantment == null) {
+                Gravestones.LOGGER.warn("Enchantment not found in registry: {}", curseId);
+                continue;
+            }
+
+            curses.add(enchantment);
+        }
+        return List.copyOf(curses);
+    }
+}
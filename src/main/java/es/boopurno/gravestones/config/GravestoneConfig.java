@@ -27,6 +27,54 @@ public class GravestoneConfig {
         public static final ForgeConfigSpec.BooleanValue ENABLE_CURSE_APPLICATION;
         public static final ForgeConfigSpec.IntValue CURSE_APPLICATION_CHANCE;
         public static final ForgeConfigSpec.ConfigValue<List<? extends String>> AVAILABLE_CURSES;
+        public static final ForgeConfigSpec.IntValue PLACEMENT_BUDGET_MICROS;
+        public static final ForgeConfigSpec.BooleanValue SEARCH_LOADED_CHUNKS_ONLY;
+        public static final ForgeConfigSpec.IntValue SAFE_POSITION_INTERVAL_TICKS;
+        public static final ForgeConfigSpec.BooleanValue DEATH_JOURNAL;
+        public static final ForgeConfigSpec.BooleanValue REMOVE_EMPTY_GRAVES;
+        public static final ForgeConfigSpec.EnumValue<AutomationAccess> AUTOMATION_ACCESS;
+        public static final ForgeConfigSpec.IntValue AUTOMATION_STACKS_PER_TICK;
+        public static final ForgeConfigSpec.IntValue GRAVE_LIFETIME_MINUTES;
+        public static final ForgeConfigSpec.EnumValue<ExpiryAction> EXPIRY_ACTION;
+        public static final ForgeConfigSpec.EnumValue<ContentStore> CONTENT_STORE;
+        public static final ForgeConfigSpec.IntValue SHARED_TAG_MIN_BYTES;
+        public static final ForgeConfigSpec.IntValue MERGE_RADIUS;
+        public static final ForgeConfigSpec.IntValue MERGE_WINDOW_MINUTES;
+        public static final ForgeConfigSpec.IntValue MERGE_MAX_SLOTS;
+
+        /**
+         * What hoppers, pipes and other automation may do with a gravestone's items.
+         */
+        public enum AutomationAccess {
+                /** Gravestones expose no item handler to automation at all. */
+                DISABLED,
+                /** Items can be pulled out, but nothing can be inserted. */
+                EXTRACT_ONLY,
+                /** Items can only be pulled out while the grave's owner is online. */
+                OWNER_ONLY
+        }
+
+        /**
+         * What happens to a gravestone's contents when it expires.
+         */
+        public enum ExpiryAction {
+                /** The items are dropped where the gravestone stood. */
+                DROP,
+                /** The items are destroyed. */
+                DELETE,
+                /** The items are written to a recovery file in the world folder for admins. */
+                RECOVERY_FILE
+        }
+
+        /**
+         * Where gravestone contents are saved.
+         */
+        public enum ContentStore {
+                /** With the gravestone's block entity, in the chunk. */
+                CHUNK,
+                /** In an append-only store file in the world folder, keyed by grave id. */
+                FILE
+        }
 
         static {
                 BUILDER.push("Item Loss Settings");
@@ -65,7 +113,9 @@ public class GravestoneConfig {
                                                 "  sophisticatedbackpacks:* - All items from sophisticatedbackpacks mod",
                                                 "  *:totem_of_undying - Totems from any mod",
                                                 "  minecraft:*_sword - All sword items from minecraft",
-                                                "  *:*_ring - All ring items from any mod")
+                                                "  *:*_ring - All ring items from any mod",
+                                                "Item tags are supported with a leading '#':",
+                                                "  #forge:tools - Every item in the forge:tools tag")
                                 .defineList("itemBlacklist",
                                                 Arrays.asList("minecraft:totem_of_undying", "curios:ring",
                                                                 "sophisticatedbackpacks:*"),
@@ -108,6 +158,90 @@ public class GravestoneConfig {
                                                 Arrays.asList("minecraft:binding_curse", "minecraft:vanishing_curse"),
                                                 obj -> obj instanceof String);
 
+                BUILDER.pop();
+
+                BUILDER.comment("Gravestone Placement").push("placement");
+
+                PLACEMENT_BUDGET_MICROS = BUILDER
+                                .comment("Time budget per server tick for placing queued gravestones, in microseconds",
+                                                "At least one gravestone is always placed per tick; the rest carry over")
+                                .defineInRange("placementBudgetMicros", 2000, 100, 50000);
+
+                SEARCH_LOADED_CHUNKS_ONLY = BUILDER
+                                .comment("Only search already loaded chunks for a gravestone position",
+                                                "Unloaded neighbouring chunks are skipped instead of being loaded on the main thread")
+                                .define("searchLoadedChunksOnly", true);
+
+                SAFE_POSITION_INTERVAL_TICKS = BUILDER
+                                .comment("How often, in ticks, to remember where each player last stood on solid ground",
+                                                "These positions are tried first when the death point itself cannot hold a gravestone")
+                                .defineInRange("safePositionIntervalTicks", 10, 1, 200);
+
+                DEATH_JOURNAL = BUILDER
+                                .comment("Journal each death's items to <world>/gravestones/deaths.journal until its gravestone is saved",
+                                                "Deaths whose gravestone was not saved yet when the server stopped or crashed are placed again on startup")
+                                .define("deathJournal", true);
+
+                BUILDER.pop();
+
+                BUILDER.comment("Gravestone Contents").push("graves");
+
+                REMOVE_EMPTY_GRAVES = BUILDER
+                                .comment("Remove a gravestone as soon as its last item has been taken out")
+                                .define("removeEmptyGraves", true);
+
+                AUTOMATION_ACCESS = BUILDER
+                                .comment("What hoppers and item pipes can do with gravestone contents",
+                                                "  DISABLED - Gravestones expose no inventory to automation",
+                                                "  EXTRACT_ONLY - Items can be pulled out but never inserted",
+                                                "  OWNER_ONLY - Items can only be pulled out while the owner is online")
+                                .defineEnum("automationAccess", AutomationAccess.EXTRACT_ONLY);
+
+                AUTOMATION_STACKS_PER_TICK = BUILDER
+                                .comment("Maximum number of different stacks automation can take items from in one gravestone per tick",
+                                                "0 means unlimited")
+                                .defineInRange("automationStacksPerTick", 0, 0, 64);
+
+                GRAVE_LIFETIME_MINUTES = BUILDER
+                                .comment("Minutes of game time after which a gravestone expires, 0 to keep gravestones forever",
+                                                "Applies to gravestones placed or first loaded after the change")
+                                .defineInRange("graveLifetimeMinutes", 0, 0, 525600);
+
+                EXPIRY_ACTION = BUILDER
+                                .comment("What happens to the contents of an expired gravestone",
+                                                "  DROP - The items are dropped where the gravestone stood",
+                                                "  DELETE - The items are destroyed",
+                                                "  RECOVERY_FILE - The items are saved to world/gravestones/recovery for admins")
+                                .defineEnum("expiryAction", ExpiryAction.DROP);
+
+                CONTENT_STORE = BUILDER
+                                .comment("Where gravestone contents are saved",
+                                                "  CHUNK - With the gravestone in the chunk, as block entity data",
+                                                "  FILE - In <world>/gravestones/graves.log, keeping chunk data small",
+                                                "Gravestones are moved to the selected store the next time their chunk saves")
+                                .defineEnum("contentStore", ContentStore.FILE);
+
+                SHARED_TAG_MIN_BYTES = BUILDER
+                                .comment("Item tags at least this many bytes long (backpacks, filled shulker boxes) are stored once",
+                                                "in <world>/gravestones/blobs.log and shared by every gravestone holding the same item",
+                                                "Only applies with contentStore FILE; 0 keeps every item tag with its gravestone")
+                                .defineInRange("sharedTagMinBytes", 1024, 0, Integer.MAX_VALUE);
+
+                MERGE_RADIUS = BUILDER
+                                .comment("Merge a death into the player's own gravestone if one is within this many blocks",
+                                                "instead of placing another gravestone; 0 always places a new one")
+                                .defineInRange("mergeRadius", 8, 0, 64);
+
+                MERGE_WINDOW_MINUTES = BUILDER
+                                .comment("Only merge into gravestones placed or merged into within this many minutes",
+                                                "Merging restarts the gravestone's lifetime; 0 merges into gravestones of any age")
+                                .defineInRange("mergeWindowMinutes", 10, 0, 10080);
+
+                MERGE_MAX_SLOTS = BUILDER
+                                .comment("Largest a gravestone may grow to by merging deaths, in slots",
+                                                "Deaths that would not fit get a gravestone of their own")
+                                .defineInRange("mergeMaxSlots", 108, 41, 1024);
+
                 BUILDER.pop();
                 SPEC = BUILDER.build();
         }
@@ -115,35 +249,4 @@ public class GravestoneConfig {
         public static void register() {
                 ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, SPEC);
         }
-
-        public static class ItemLossSettings {
-                public boolean enableItemLoss = false;
-                public int minSlotsLostPercent = 5;
-                public int maxSlotsLostPercent = 20;
-                public int minStackLossPercent = 10;
-                public int maxStackLossPercent = 50;
-                public int minDurabilityLossPercent = 10;
-                public int maxDurabilityLossPercent = 30;
-                public List<String> itemBlacklist = Arrays.asList("minecraft:totem_of_undying",
-                                "sophisticatedbackpacks:*");
-                public boolean affectCuriosItems = false;
-                public boolean protectEnchantedItems = true;
-                public int enchantedItemProtection = 50;
-
-                public void updateFromConfig() {
-                        this.enableItemLoss = ENABLE_ITEM_LOSS.get();
-                        this.minSlotsLostPercent = MIN_SLOTS_LOST_PERCENT.get();
-                        this.maxSlotsLostPercent = MAX_SLOTS_LOST_PERCENT.get();
-                        this.minStackLossPercent = MIN_STACK_LOSS_PERCENT.get();
-                        this.maxStackLossPercent = MAX_STACK_LOSS_PERCENT.get();
-                        this.minDurabilityLossPercent = MIN_DURABILITY_LOSS_PERCENT.get();
-                        this.maxDurabilityLossPercent = MAX_DURABILITY_LOSS_PERCENT.get();
-                        this.itemBlacklist = (List<String>) ITEM_BLACKLIST.get();
-                        this.affectCuriosItems = AFFECT_CURIOS_ITEMS.get();
-                        this.protectEnchantedItems = PROTECT_ENCHANTED_ITEMS.get();
-                        this.enchantedItemProtection = ENCHANTED_ITEM_PROTECTION.get();
-                }
-        }
-
-        public static ItemLossSettings itemLoss = new ItemLossSettings();
-}
\ No newline at end of file
+}
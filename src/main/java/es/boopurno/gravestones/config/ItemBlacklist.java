@@ -0,0 +1,144 @@
+package es.boopurno.gravestones.config;
+
+import es.boopurno.gravestones.Gravestones;
+import it.unimi.dsi.fastutil.objects.Reference2BooleanOpenHashMap;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The item loss blacklist, compiled once from {@link GravestoneConfig#ITEM_BLACKLIST}.
+ * <p>
+ * Entries are sorted by kind when compiled: exact registry names go into a hash
+ * set, {@code namespace:*} and {@code *:path} wildcards into their own sets,
+ * other wildcards into precompiled patterns and {@code #namespace:tag} entries
+ * into tag keys. The answer for each {@link Item} is cached, so repeat lookups
+ * are a single identity-map hit. Instances are immutable apart from that cache,
+ * which is only touched from the server thread, and are replaced wholesale as
+ * part of {@link DeathSettings} on config or tag reload.
+ */
+public final class ItemBlacklist {
+    private final Set<ResourceLocation> exactIds = new HashSet<>();
+    private final Set<String> wildcardNamespaces = new HashSet<>();
+    private final Set<String> wildcardPaths = new HashSet<>();
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final List<TagKey<Item>> tags = new ArrayList<>();
+    private final Reference2BooleanOpenHashMap<Item> cache = new Reference2BooleanOpenHashMap<>();
+
+    private ItemBlacklist(List<? extends String> entries) {
+        for (String entry : entries) {
+            compileEntry(entry.trim());
+        }
+    }
+
+    public static ItemBlacklist compile(List<? extends String> entries) {
+        return new ItemBlacklist(entries);
+    }
+
+    public boolean contains(ItemStack stack) {
+        return contains(stack.getItem());
+    }
+
+    public boolean contains(Item item) {
+        if (this.cache.containsKey(item)) {
+            return this.cache.getBoolean(item);
+        }
+
+        boolean result = matches(item);
+        this.cache.put(item, result);
+        return result;
+    }
+
+    private boolean matches(Item item) {
+        ResourceLocation itemId = BuiltInRegistries.ITEM.getKey(item);
+
+        if (this.exactIds.contains(itemId)
+                || this.wildcardNamespaces.contains(itemId.getNamespace())
+                || this.wildcardPaths.contains(itemId.getPath())) {
+            return true;
+        }
+
+        if (!this.patterns.isEmpty()) {
+            String fullId = itemId.toString();
+            for (Pattern pattern : this.patterns) {
+                if (pattern.matcher(fullId).matches()) {
+                    return true;
+                }
+            }
+        }
+
+        for (TagKey<Item> tag : this.tags) {
+            if (item.builtInRegistryHolder().is(tag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void compileEntry(String entry) {
+        if (entry.isEmpty()) {
+            return;
+        }
+
+        if (entry.startsWith("#")) {
+            ResourceLocation tagId = ResourceLocation.tryParse(entry.substring(1));
+            if (tagId == null) {
+                Gravestones.LOGGER.warn("Invalid item tag in blacklist: '{}'", entry);
+                return;
+            }
+            this.tags.add(TagKey.create(Registries.ITEM, tagId));
+            return;
+        }
+
+        if (!entry.contains("*")) {
+            ResourceLocation itemId = ResourceLocation.tryParse(entry);
+            if (itemId == null) {
+                Gravestones.LOGGER.warn("Invalid item id in blacklist: '{}'", entry);
+                return;
+            }
+            this.exactIds.add(itemId);
+            return;
+        }
+
+        String[] parts = entry.split(":", 2);
+        if (parts.length != 2) {
+            Gravestones.LOGGER.warn("Invalid wildcard pattern in blacklist: '{}'", entry);
+            return;
+        }
+
+        if (parts[1].equals("*") && !parts[0].contains("*")) {
+            this.wildcardNamespaces.add(parts[0]);
+        } else if (parts[0].equals("*") && !parts[1].contains("*")) {
+            this.wildcardPaths.add(parts[1]);
+        } else {
+            this.patterns.add(Pattern.compile(compileWildcard(parts[0]) + ":" + compileWildcard(parts[1])));
+        }
+    }
+
+    private static String compileWildcard(String wildcard) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        int star;
+        while ((star = wildcard.indexOf('*', start)) >= 0) {
+            if (star > start) {
+                regex.append(Pattern.quote(wildcard.substring(start, star)));
+            }
+            regex.append("[^:]*");
+            start = star + 1;
+        }
+        if (start < wildcard.length()) {
+            regex.append(Pattern.quote(wildcard.substring(start)));
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,416 @@
+package es.boopurno.gravestones.death;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.config.GravestoneConfig;
+import es.boopurno.gravestones.grave.store.GraveStores;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.storage.LevelResource;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.level.ChunkDataEvent;
+import net.minecraftforge.event.level.LevelEvent;
+import net.minecraftforge.event.server.ServerStartedEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of deaths whose gravestone is not saved yet.
+ * <p>
+ * Every queued death appends its {@link DeathSnapshot} to
+ * {@code <world>/gravestones/deaths.journal} before the player's items exist
+ * anywhere but in memory. Appends are group committed: the journal is forced to
+ * disk once at the end of the tick, however many players died in it. Once a
+ * gravestone is placed, its entry stays open until the grave's chunk has been
+ * saved and that save has reached the disk, since until then a crash would lose
+ * the grave just the same. Saving a chunk only serializes it for a background
+ * writer, so entries are completed at the next save of the grave's level, after
+ * waiting for the writes queued so far, or when the server stops, once every
+ * level has been written and closed. Deaths that end in dropped items complete
+ * straight away.
+ * <p>
+ * On startup, entries that never completed are placed again through the
+ * {@link GravePlacementQueue}, and the journal is rewritten with only those
+ * entries. A death is only replayed if the owner's saved player data already
+ * counts it: each death bumps a sequence number kept in the player's persisted
+ * data and in the entry, and if the player file on disk is behind the entry,
+ * the crash rolled the player back to before the death, inventory included, so
+ * placing the grave would duplicate the items. Such entries are completed
+ * without a grave. While the server runs, the file is emptied whenever no entry
+ * is left open.
+ */
+@Mod.EventBusSubscriber(modid = Gravestones.MODID)
+public class DeathJournal {
+    private static final byte TYPE_DEATH = 1;
+    private static final byte TYPE_COMPLETE = 2;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 4;
+    private static final String TAG_DEATH_SEQUENCE = "GravestonesDeathSequence";
+
+    // Journal entries of placed gravestones, waiting on their chunk's next save
+    private static final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<LongArrayList>> AWAITING_SAVE =
+            new HashMap<>();
+    // Entries whose chunk was saved, waiting for that save to be written out
+    private static final Map<ResourceKey<Level>, LongArrayList> AWAITING_WRITE = new HashMap<>();
+    private static final ByteBuffer HEADER = ByteBuffer.allocate(HEADER_SIZE);
+
+    @Nullable
+    private static FileChannel channel;
+    @Nullable
+    private static Path path;
+    private static long size;
+    private static long nextId = 1;
+    private static int open;
+    private static boolean unflushed;
+
+    @SubscribeEvent
+    public static void onServerStarted(ServerStartedEvent event) {
+        if (!GravestoneConfig.DEATH_JOURNAL.get()) {
+            return;
+        }
+
+        MinecraftServer server = event.getServer();
+        path = server.getWorldPath(LevelResource.ROOT).resolve(Gravestones.MODID).resolve("deaths.journal");
+        Long2ObjectLinkedOpenHashMap<byte[]> incomplete;
+        try {
+            Files.createDirectories(path.getParent());
+            incomplete = readIncomplete(path);
+            rewrite(path, incomplete);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = channel.size();
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to open death journal {}, deaths will not be journaled: {}", path,
+                    e.getMessage());
+            channel = null;
+            return;
+        }
+
+        if (incomplete.isEmpty()) {
+            return;
+        }
+        Gravestones.LOGGER.warn("Found {} deaths whose gravestones were never saved, placing them again",
+                incomplete.size());
+        Object2LongOpenHashMap<UUID> savedSequences = new Object2LongOpenHashMap<>();
+        for (Long2ObjectMap.Entry<byte[]> entry : incomplete.long2ObjectEntrySet()) {
+            try {
+                CompoundTag tag = NbtIo.read(new DataInputStream(new ByteArrayInputStream(entry.getValue())));
+                DeathSnapshot snapshot = DeathSnapshot.load(tag);
+
+                UUID owner = snapshot.getOwnerId();
+                if (!savedSequences.containsKey(owner)) {
+                    savedSequences.put(owner, savedDeathSequence(server, owner));
+                }
+                if (snapshot.getDeathSequence() > savedSequences.getLong(owner)) {
+                    // The player file still holds the items, so the rollback already gave them back
+                    Gravestones.LOGGER.info("Death of {} at {} never reached their saved player data, "
+                            + "discarding it from the death journal", snapshot.getOwnerName(), snapshot.getDeathPos());
+                    complete(entry.getLongKey());
+                    continue;
+                }
+                Gravestones.LOGGER.info("Replaying death of {} at {} from the death journal",
+                        snapshot.getOwnerName(), snapshot.getDeathPos());
+                GravePlacementQueue.requeue(server, snapshot, entry.getLongKey());
+            } catch (IOException | RuntimeException e) {
+                // Left open in the journal, so a later start can try again
+                Gravestones.LOGGER.error("Failed to replay death journal entry {}: {}", entry.getLongKey(),
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Counts a death of {@code player} in their persisted data, which survives
+     * respawning, and returns its sequence number. The count reaches disk with
+     * the player's next save, together with the inventory the death emptied.
+     */
+    static long nextDeathSequence(ServerPlayer player) {
+        CompoundTag persisted = player.getPersistentData().getCompound(Player.PERSISTED_NBT_TAG);
+        long sequence = persisted.getLong(TAG_DEATH_SEQUENCE) + 1;
+        persisted.putLong(TAG_DEATH_SEQUENCE, sequence);
+        player.getPersistentData().put(Player.PERSISTED_NBT_TAG, persisted);
+        return sequence;
+    }
+
+    /**
+     * The death count in {@code owner}'s player file on disk, or 0 if they have
+     * never been saved.
+     */
+    private static long savedDeathSequence(MinecraftServer server, UUID owner) throws IOException {
+        File file = server.getWorldPath(LevelResource.PLAYER_DATA_DIR).resolve(owner + ".dat").toFile();
+        if (!file.exists()) {
+            return 0;
+        }
+        CompoundTag playerTag = NbtIo.readCompressed(file);
+        // Forge saves an entity's persistent data under ForgeData
+        return playerTag.getCompound("ForgeData").getCompound(Player.PERSISTED_NBT_TAG)
+                .getLong(TAG_DEATH_SEQUENCE);
+    }
+
+    /**
+     * Reads the journal, returning the payload of every entry that was never
+     * completed, in the order they were written. A torn or corrupt tail from a
+     * crash ends the read.
+     */
+    private static Long2ObjectLinkedOpenHashMap<byte[]> readIncomplete(Path path) throws IOException {
+        Long2ObjectLinkedOpenHashMap<byte[]> incomplete = new Long2ObjectLinkedOpenHashMap<>();
+        if (!Files.exists(path)) {
+            return incomplete;
+        }
+
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = in.size();
+            long position = 0;
+            CRC32 crc = new CRC32();
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE);
+
+            while (position + HEADER_SIZE <= fileSize) {
+                head.clear();
+                in.read(head, position);
+                head.flip();
+                int length = head.getInt();
+                byte type = head.get();
+                long id = head.getLong();
+                int checksum = head.getInt();
+
+                if (length < 0 || (type != TYPE_DEATH && type != TYPE_COMPLETE)
+                        || position + HEADER_SIZE + length > fileSize) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                in.read(payload, position + HEADER_SIZE);
+                crc.reset();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                if (type == TYPE_DEATH) {
+                    incomplete.put(id, payload.array());
+                } else {
+                    incomplete.remove(id);
+                }
+                nextId = Math.max(nextId, id + 1);
+                position += HEADER_SIZE + length;
+            }
+
+            if (position < fileSize) {
+                Gravestones.LOGGER.warn("Death journal {} has {} bytes of incomplete or corrupt records at its end, "
+                        + "discarding them", path, fileSize - position);
+            }
+        }
+        return incomplete;
+    }
+
+    /**
+     * Replaces the journal with one holding only {@code incomplete}, keeping their
+     * ids, and swaps it in atomically.
+     */
+    private static void rewrite(Path path, Long2ObjectLinkedOpenHashMap<byte[]> incomplete) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (Long2ObjectMap.Entry<byte[]> entry : incomplete.long2ObjectEntrySet()) {
+                position = write(out, position, TYPE_DEATH, entry.getLongKey(), entry.getValue());
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open = incomplete.size();
+    }
+
+    private static long write(FileChannel out, long position, byte type, long id, byte[] payload)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        HEADER.clear();
+        HEADER.putInt(payload.length).put(type).putLong(id).putInt((int) crc.getValue());
+        HEADER.flip();
+        while (HEADER.hasRemaining()) {
+            position += out.write(HEADER, position);
+        }
+        ByteBuffer body = ByteBuffer.wrap(payload);
+        while (body.hasRemaining()) {
+            position += out.write(body, position);
+        }
+        return position;
+    }
+
+    /**
+     * Journals a death before its gravestone is placed.
+     *
+     * @return the entry's id, or 0 if the journal is disabled or could not be
+     *         written
+     */
+    public static long append(DeathSnapshot snapshot) {
+        if (channel == null) {
+            return 0;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+            NbtIo.write(snapshot.save(), new DataOutputStream(bytes));
+            long id = nextId++;
+            size = write(channel, size, TYPE_DEATH, id, bytes.toByteArray());
+            open++;
+            unflushed = true;
+            return id;
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to journal death of {}: {}", snapshot.getOwnerName(), e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Completes the entry once the chunk holding the gravestone at {@code pos}
+     * has been saved and written to disk.
+     */
+    public static void completeOnSave(long id, ResourceKey<Level> dimension, BlockPos pos) {
+        if (id == 0 || channel == null) {
+            return;
+        }
+        AWAITING_SAVE.computeIfAbsent(dimension, key -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(ChunkPos.asLong(pos), key -> new LongArrayList(2)).add(id);
+    }
+
+    /**
+     * Completes the entry now, for deaths that did not leave a gravestone.
+     */
+    public static void complete(long id) {
+        if (id == 0 || channel == null) {
+            return;
+        }
+
+        try {
+            size = write(channel, size, TYPE_COMPLETE, id, new byte[0]);
+            open--;
+            unflushed = true;
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to complete death journal entry {}: {}", id, e.getMessage());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onChunkSave(ChunkDataEvent.Save event) {
+        if (AWAITING_SAVE.isEmpty() || !(event.getLevel() instanceof ServerLevel level)) {
+            return;
+        }
+        Long2ObjectOpenHashMap<LongArrayList> chunks = AWAITING_SAVE.get(level.dimension());
+        if (chunks == null) {
+            return;
+        }
+
+        LongArrayList ids = chunks.remove(event.getChunk().getPos().toLong());
+        if (ids == null) {
+            return;
+        }
+        // The chunk is only serialized so far; its region file is written later, off the server thread
+        AWAITING_WRITE.computeIfAbsent(level.dimension(), key -> new LongArrayList()).addAll(ids);
+        if (chunks.isEmpty()) {
+            AWAITING_SAVE.remove(level.dimension());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onLevelSave(LevelEvent.Save event) {
+        if (AWAITING_WRITE.isEmpty() || !(event.getLevel() instanceof ServerLevel level)) {
+            return;
+        }
+        LongArrayList ids = AWAITING_WRITE.remove(level.dimension());
+        if (ids == null) {
+            return;
+        }
+
+        // Waits for every chunk write queued so far, which includes the saves of these graves
+        level.getChunkSource().chunkMap.flushWorker();
+        completeAll(ids);
+    }
+
+    private static void completeAll(LongArrayList ids) {
+        for (int i = 0; i < ids.size(); i++) {
+            complete(ids.getLong(i));
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.END) {
+            flush();
+        }
+    }
+
+    private static void flush() {
+        if (channel == null || !unflushed) {
+            return;
+        }
+
+        // Grave contents saved this tick must be durable before the entries they complete are
+        GraveStores.flush();
+        try {
+            if (open == 0) {
+                // Nothing left to replay, so start the file over instead of letting it grow
+                channel.truncate(0);
+                size = 0;
+            }
+            channel.force(false);
+            unflushed = false;
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to flush death journal {}: {}", path, e.getMessage());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        if (channel != null) {
+            // Every level has been saved and closed by now, which writes out all of their chunks
+            for (LongArrayList ids : AWAITING_WRITE.values()) {
+                completeAll(ids);
+            }
+            flush();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Gravestones.LOGGER.error("Failed to close death journal {}: {}", path, e.getMessage());
+            }
+        }
+        channel = null;
+        path = null;
+        size = 0;
+        nextId = 1;
+        open = 0;
+        unflushed = false;
+        AWAITING_SAVE.clear();
+        AWAITING_WRITE.clear();
+    }
+}
@@ -0,0 +1,234 @@
+package es.boopurno.gravestones.death;
+
+import es.boopurno.gravestones.grave.GraveLayout;
+import es.boopurno.gravestones.grave.GraveSlotGroup;
+import es.boopurno.gravestones.grave.GraveSlotGroups;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.Containers;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.Level;
+import net.minecraftforge.items.IItemHandlerModifiable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Everything a gravestone needs from a dying player, captured once at death.
+ * <p>
+ * The snapshot takes ownership of the player's stacks: they are moved out of
+ * the live inventory (the player's slots are set to {@link ItemStack#EMPTY})
+ * and handed to the gravestone as-is, so no stack or NBT tree is ever copied.
+ * Stacks are kept in gravestone slot order, as described by {@link #getLayout()}.
+ */
+public class DeathSnapshot {
+    private static final String TAG_OWNER = "Owner";
+    private static final String TAG_OWNER_NAME = "OwnerName";
+    private static final String TAG_DIMENSION = "Dim";
+    private static final String TAG_POS = "Pos";
+    private static final String TAG_FACING = "Facing";
+    private static final String TAG_SAFE_POSITIONS = "SafePositions";
+    private static final String TAG_ITEMS = "Items";
+    private static final String TAG_SLOT = "S";
+    private static final String TAG_SEQUENCE = "Seq";
+
+    private final UUID ownerId;
+    private final String ownerName;
+    private final ResourceKey<Level> dimension;
+    private final BlockPos deathPos;
+    private final Direction facing;
+    private final long[] safePositions;
+    private final GraveLayout layout;
+    private final ItemStack[] stacks;
+    private final long deathSequence;
+
+    private DeathSnapshot(UUID ownerId, String ownerName, ResourceKey<Level> dimension, BlockPos deathPos,
+            Direction facing, long[] safePositions, GraveLayout layout, ItemStack[] stacks, long deathSequence) {
+        this.ownerId = ownerId;
+        this.ownerName = ownerName;
+        this.dimension = dimension;
+        this.deathPos = deathPos;
+        this.facing = facing;
+        this.safePositions = safePositions;
+        this.layout = layout;
+        this.stacks = stacks;
+        this.deathSequence = deathSequence;
+    }
+
+    public static DeathSnapshot capture(ServerPlayer player) {
+        List<GraveSlotGroup> groups = GraveSlotGroups.active();
+
+        // Dynamic groups are walked once up front, since their size decides the layout
+        GraveSlotGroup.Capture[] captures = new GraveSlotGroup.Capture[groups.size()];
+        int[] sizes = new int[groups.size()];
+        for (int g = 0; g < groups.size(); g++) {
+            GraveSlotGroup group = groups.get(g);
+            if (group.isDynamic()) {
+                captures[g] = group.capture(player);
+                sizes[g] = captures[g].size();
+            } else {
+                sizes[g] = group.getSize();
+            }
+        }
+
+        GraveLayout layout = GraveLayout.create(groups, sizes);
+        ItemStack[] stacks = new ItemStack[layout.size()];
+        Arrays.fill(stacks, ItemStack.EMPTY);
+
+        for (int g = 0, captured = 0; g < groups.size(); g++) {
+            if (sizes[g] == 0) {
+                continue;
+            }
+            int start = layout.getGroupStart(captured++);
+
+            if (captures[g] != null) {
+                for (int i = 0; i < sizes[g]; i++) {
+                    stacks[start + i] = captures[g].get(i);
+                }
+                captures[g].clearSource();
+                continue;
+            }
+
+            IItemHandlerModifiable source = groups.get(g).open(player);
+            if (source == null) {
+                continue;
+            }
+            for (int i = 0; i < sizes[g]; i++) {
+                int sourceSlot = layout.getSourceSlot(start + i);
+                if (sourceSlot < source.getSlots()) {
+                    stacks[start + i] = source.getStackInSlot(sourceSlot);
+                    source.setStackInSlot(sourceSlot, ItemStack.EMPTY);
+                }
+            }
+        }
+
+        return new DeathSnapshot(player.getUUID(), player.getGameProfile().getName(), player.level().dimension(),
+                player.blockPosition(), player.getDirection().getOpposite(), SafePositionTracker.takePositions(player),
+                layout, stacks, DeathJournal.nextDeathSequence(player));
+    }
+
+    /**
+     * Writes the snapshot, stacks included, for the {@link DeathJournal}. Only
+     * occupied slots are written.
+     */
+    public CompoundTag save() {
+        CompoundTag tag = new CompoundTag();
+        tag.putUUID(TAG_OWNER, this.ownerId);
+        tag.putString(TAG_OWNER_NAME, this.ownerName);
+        tag.putString(TAG_DIMENSION, this.dimension.location().toString());
+        tag.putLong(TAG_POS, this.deathPos.asLong());
+        tag.putByte(TAG_FACING, (byte) this.facing.get3DDataValue());
+        tag.putLongArray(TAG_SAFE_POSITIONS, this.safePositions);
+        tag.put(GraveLayout.TAG_LAYOUT, this.layout.save());
+        tag.putLong(TAG_SEQUENCE, this.deathSequence);
+
+        ListTag items = new ListTag();
+        for (int i = 0; i < this.stacks.length; i++) {
+            if (!this.stacks[i].isEmpty()) {
+                CompoundTag itemTag = new CompoundTag();
+                itemTag.putShort(TAG_SLOT, (short) i);
+                this.stacks[i].save(itemTag);
+                items.add(itemTag);
+            }
+        }
+        tag.put(TAG_ITEMS, items);
+        return tag;
+    }
+
+    public static DeathSnapshot load(CompoundTag tag) {
+        GraveLayout layout = GraveLayout.load(tag.getList(GraveLayout.TAG_LAYOUT, Tag.TAG_COMPOUND));
+        ItemStack[] stacks = new ItemStack[layout.size()];
+        Arrays.fill(stacks, ItemStack.EMPTY);
+
+        ListTag items = tag.getList(TAG_ITEMS, Tag.TAG_COMPOUND);
+        for (int i = 0; i < items.size(); i++) {
+            CompoundTag itemTag = items.getCompound(i);
+            int slot = itemTag.getShort(TAG_SLOT) & 0xFFFF;
+            if (slot < stacks.length) {
+                stacks[slot] = ItemStack.of(itemTag);
+            }
+        }
+
+        return new DeathSnapshot(tag.getUUID(TAG_OWNER), tag.getString(TAG_OWNER_NAME),
+                ResourceKey.create(Registries.DIMENSION, new ResourceLocation(tag.getString(TAG_DIMENSION))),
+                BlockPos.of(tag.getLong(TAG_POS)), Direction.from3DDataValue(tag.getByte(TAG_FACING)),
+                tag.getLongArray(TAG_SAFE_POSITIONS), layout, stacks, tag.getLong(TAG_SEQUENCE));
+    }
+
+    public UUID getOwnerId() {
+        return this.ownerId;
+    }
+
+    public String getOwnerName() {
+        return this.ownerName;
+    }
+
+    public ResourceKey<Level> getDimension() {
+        return this.dimension;
+    }
+
+    public BlockPos getDeathPos() {
+        return this.deathPos;
+    }
+
+    public Direction getFacing() {
+        return this.facing;
+    }
+
+    /**
+     * The owner's death count including this death; see
+     * {@link DeathJournal#nextDeathSequence}.
+     */
+    public long getDeathSequence() {
+        return this.deathSequence;
+    }
+
+    /**
+     * Packed positions where the player last stood on solid ground, newest first.
+     */
+    public long[] getSafePositions() {
+        return this.safePositions;
+    }
+
+    public int size() {
+        return this.stacks.length;
+    }
+
+    public ItemStack get(int slot) {
+        return this.stacks[slot];
+    }
+
+    public void set(int slot, ItemStack stack) {
+        this.stacks[slot] = stack;
+    }
+
+    public GraveLayout getLayout() {
+        return this.layout;
+    }
+
+    public boolean isEmpty() {
+        for (ItemStack stack : this.stacks) {
+            if (!stack.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void dropAll(Level level, BlockPos pos) {
+        for (int i = 0; i < this.stacks.length; i++) {
+            if (!this.stacks[i].isEmpty()) {
+                Containers.dropItemStack(level, pos.getX(), pos.getY(), pos.getZ(), this.stacks[i]);
+                this.stacks[i] = ItemStack.EMPTY;
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package es.boopurno.gravestones.death;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.block.GravestoneBlock;
+import es.boopurno.gravestones.config.GravestoneConfig;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Server-wide FIFO of pending gravestone placements.
+ * <p>
+ * Deaths are queued instead of being placed inline, and the queue is drained at
+ * the end of each server tick until the configured time budget is spent. Work
+ * that does not fit carries over to the next tick, so a mass death is spread
+ * over several ticks instead of producing one long one. Every queued death is
+ * journaled first (see {@link DeathJournal}), so nothing held here is lost if
+ * the server goes down before it is placed.
+ */
+@Mod.EventBusSubscriber(modid = Gravestones.MODID)
+public class GravePlacementQueue {
+    private static final ArrayDeque<Entry> DELAYED = new ArrayDeque<>();
+    private static final ArrayDeque<Entry> READY = new ArrayDeque<>();
+
+    private static long lastWaitNanos = 0;
+    private static long maxWaitNanos = 0;
+    private static long totalPlaced = 0;
+    // Whether the last tick left placements for later, so the tick that catches up can report it
+    private static boolean backlogged;
+
+    private record Entry(DeathSnapshot snapshot, int readyTick, long enqueuedAt, long journalId) {
+    }
+
+    public static void enqueue(MinecraftServer server, DeathSnapshot snapshot, int delayTicks) {
+        long journalId = DeathJournal.append(snapshot);
+        Entry entry = new Entry(snapshot, server.getTickCount() + delayTicks, System.nanoTime(), journalId);
+        if (delayTicks > 0) {
+            DELAYED.add(entry);
+        } else {
+            READY.add(entry);
+        }
+    }
+
+    /**
+     * Queues a death replayed from the journal under its existing entry.
+     */
+    static void requeue(MinecraftServer server, DeathSnapshot snapshot, long journalId) {
+        READY.add(new Entry(snapshot, server.getTickCount(), System.nanoTime(), journalId));
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+
+        MinecraftServer server = event.getServer();
+        promoteDelayed(server.getTickCount());
+
+        if (READY.isEmpty()) {
+            return;
+        }
+
+        long budgetNanos = GravestoneConfig.PLACEMENT_BUDGET_MICROS.get() * 1000L;
+        long start = System.nanoTime();
+        int placed = 0;
+
+        // Always place at least one so the queue makes progress even with a tiny budget
+        while (!READY.isEmpty() && (placed == 0 || System.nanoTime() - start < budgetNanos)) {
+            place(server, READY.poll());
+            placed++;
+        }
+
+        if (!READY.isEmpty()) {
+            backlogged = true;
+            Gravestones.LOGGER.debug("Placed {} gravestones this tick, {} still queued, oldest waiting {} ms",
+                    placed, getDepth(), getOldestWaitNanos() / 1_000_000L);
+        } else if (backlogged) {
+            backlogged = false;
+            Gravestones.LOGGER.debug("Placement backlog cleared, last gravestone waited {} ms, longest wait {} ms, "
+                    + "{} placed since startup", lastWaitNanos / 1_000_000L, maxWaitNanos / 1_000_000L, totalPlaced);
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopping(ServerStoppingEvent event) {
+        // Nothing may be left in memory once the server shuts down, so ignore the budget here
+        DELAYED.forEach(READY::add);
+        DELAYED.clear();
+        while (!READY.isEmpty()) {
+            place(event.getServer(), READY.poll());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        DELAYED.clear();
+        READY.clear();
+        lastWaitNanos = 0;
+        maxWaitNanos = 0;
+        totalPlaced = 0;
+        backlogged = false;
+    }
+
+    private static void promoteDelayed(int tickCount) {
+        Iterator<Entry> iterator = DELAYED.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.readyTick() <= tickCount) {
+                READY.add(entry);
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void place(MinecraftServer server, Entry entry) {
+        long waited = System.nanoTime() - entry.enqueuedAt();
+        lastWaitNanos = waited;
+        maxWaitNanos = Math.max(maxWaitNanos, waited);
+        totalPlaced++;
+
+        DeathSnapshot snapshot = entry.snapshot();
+        ServerLevel level = server.getLevel(snapshot.getDimension());
+
+        if (level == null) {
+            Gravestones.LOGGER.error("Dimension {} is not loaded. Dropping items for {} in the overworld.",
+                    snapshot.getDimension().location(), snapshot.getOwnerName());
+            snapshot.dropAll(server.overworld(), server.overworld().getSharedSpawnPos());
+            DeathJournal.complete(entry.journalId());
+            return;
+        }
+
+        if (Gravestones.GRAVESTONE_BLOCK.get() instanceof GravestoneBlock gravestoneBlockInstance) {
+            BlockPos gravePos = gravestoneBlockInstance.placeFromSnapshot(level, snapshot);
+            if (gravePos != null) {
+                Gravestones.LOGGER.info("Placed gravestone for player {} at {}", snapshot.getOwnerName(), gravePos);
+                DeathJournal.completeOnSave(entry.journalId(), level.dimension(), gravePos);
+            } else {
+                DeathJournal.complete(entry.journalId());
+            }
+        } else {
+            Gravestones.LOGGER.error("GRAVESTONE_BLOCK is not an instance of GravestoneBlock! Cannot place grave.");
+            // As fallback, drop the stored items
+            snapshot.dropAll(level, snapshot.getDeathPos());
+            Gravestones.LOGGER.warn("Dropped stored items at {} due to gravestone placement failure",
+                    snapshot.getDeathPos());
+            DeathJournal.complete(entry.journalId());
+        }
+    }
+
+    /**
+     * Deaths waiting to be placed, including explosion deaths still in their delay.
+     */
+    public static int getDepth() {
+        return READY.size() + DELAYED.size();
+    }
+
+    /**
+     * How long the longest-waiting queued death has waited so far, or 0 if the
+     * queue is empty.
+     */
+    public static long getOldestWaitNanos() {
+        Entry oldest = READY.isEmpty() ? DELAYED.peek() : READY.peek();
+        return oldest == null ? 0 : System.nanoTime() - oldest.enqueuedAt();
+    }
+
+    /**
+     * Time between queueing and placement of the most recently placed death.
+     */
+    public static long getLastWaitNanos() {
+        return lastWaitNanos;
+    }
+
+    /**
+     * Longest time between queueing and placement since the server started.
+     */
+    public static long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    public static long getTotalPlaced() {
+        return totalPlaced;
+    }
+}
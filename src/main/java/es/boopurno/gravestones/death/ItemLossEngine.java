@@ -0,0 +1,241 @@
+package es.boopurno.gravestones.death;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.config.DeathSettings;
+import es.boopurno.gravestones.grave.GraveLayout;
+import net.minecraft.util.RandomSource;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.enchantment.Enchantment;
+import net.minecraft.world.item.enchantment.EnchantmentHelper;
+
+import java.util.List;
+
+/**
+ * Applies the configured item loss to a {@link DeathSnapshot}.
+ * <p>
+ * Candidates are tracked as snapshot slot indices in a reusable {@code int[]},
+ * and only the slots that will actually be affected are drawn, with a partial
+ * Fisher–Yates shuffle over that array. Stacks are modified in place in the
+ * snapshot, so a death allocates nothing here beyond what vanilla does when
+ * damaging or enchanting a stack. Inventory and accessory slot groups run
+ * through the same selection code.
+ * <p>
+ * The scratch array makes an engine single-threaded; the shared instance is
+ * only used from the server thread.
+ */
+public final class ItemLossEngine {
+    private static final ItemLossEngine INSTANCE = new ItemLossEngine();
+
+    private int[] candidates = new int[64];
+    private int candidateCount;
+    private int itemsLost;
+    private int stacksAffected;
+
+    public static ItemLossEngine get() {
+        return INSTANCE;
+    }
+
+    public void apply(DeathSnapshot snapshot, DeathSettings settings, RandomSource random) {
+        if (!settings.enableItemLoss) {
+            return;
+        }
+
+        this.itemsLost = 0;
+        this.stacksAffected = 0;
+
+        collectCandidates(snapshot, false);
+
+        if (settings.respectCurseOfVanishing) {
+            removeVanishingItems(snapshot);
+        }
+
+        if (settings.enableCurseApplication) {
+            applyCurses(snapshot, settings, random);
+        }
+
+        affectCandidates(snapshot, settings, random);
+
+        if (settings.affectCuriosItems) {
+            collectCandidates(snapshot, true);
+            if (this.candidateCount > 0) {
+                affectCandidates(snapshot, settings, random);
+            }
+        }
+
+        if (this.itemsLost > 0 || this.stacksAffected > 0) {
+            Gravestones.LOGGER.info(
+                    "Player {} lost {} items from {} stacks on death ({}-{}% of occupied slots affected)",
+                    snapshot.getOwnerName(), this.itemsLost, this.stacksAffected,
+                    settings.minSlotsLostPercent, settings.maxSlotsLostPercent);
+        }
+    }
+
+    /**
+     * Collects the occupied slots of either the inventory groups or the accessory
+     * (Curios-style) groups of the snapshot's layout.
+     */
+    private void collectCandidates(DeathSnapshot snapshot, boolean accessory) {
+        GraveLayout layout = snapshot.getLayout();
+        if (this.candidates.length < layout.size()) {
+            this.candidates = new int[layout.size()];
+        }
+
+        int count = 0;
+        for (int g = 0; g < layout.getGroupCount(); g++) {
+            if (layout.getGroup(g).isAccessory() != accessory) {
+                continue;
+            }
+            int end = layout.getGroupStart(g) + layout.getGroupSize(g);
+            for (int slot = layout.getGroupStart(g); slot < end; slot++) {
+                if (!snapshot.get(slot).isEmpty()) {
+                    this.candidates[count++] = slot;
+                }
+            }
+        }
+        this.candidateCount = count;
+    }
+
+    private void removeVanishingItems(DeathSnapshot snapshot) {
+        int kept = 0;
+        for (int i = 0; i < this.candidateCount; i++) {
+            int slot = this.candidates[i];
+            ItemStack stack = snapshot.get(slot);
+
+            if (EnchantmentHelper.hasVanishingCurse(stack)) {
+                snapshot.set(slot, ItemStack.EMPTY);
+                if (Gravestones.LOGGER.isDebugEnabled()) {
+                    Gravestones.LOGGER.debug("Item {} disappeared due to Curse of Vanishing for player {}",
+                            stack.getDisplayName().getString(), snapshot.getOwnerName());
+                }
+            } else {
+                this.candidates[kept++] = slot;
+            }
+        }
+        this.candidateCount = kept;
+    }
+
+    private void applyCurses(DeathSnapshot snapshot, DeathSettings settings, RandomSource random) {
+        List<Enchantment> curses = settings.curses;
+        if (settings.curseApplicationChance <= 0 || curses.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < this.candidateCount; i++) {
+            ItemStack stack = snapshot.get(this.candidates[i]);
+            if (stack.getEnchantmentTags().isEmpty()) {
+                continue;
+            }
+
+            if (random.nextInt(100) >= settings.curseApplicationChance) {
+                continue;
+            }
+
+            Enchantment enchantment = curses.get(random.nextInt(curses.size()));
+            if (EnchantmentHelper.getItemEnchantmentLevel(enchantment, stack) > 0) {
+                continue;
+            }
+
+            stack.enchant(enchantment, 1);
+
+            if (Gravestones.LOGGER.isDebugEnabled()) {
+                Gravestones.LOGGER.debug("Applied curse {} to item {} for player on death",
+                        enchantment.getDescriptionId(), stack.getDisplayName().getString());
+            }
+        }
+    }
+
+    private void affectCandidates(DeathSnapshot snapshot, DeathSettings settings, RandomSource random) {
+        int minSlotsPercent = settings.minSlotsLostPercent;
+        int maxSlotsPercent = settings.maxSlotsLostPercent;
+        int slotPercentage = minSlotsPercent + random.nextInt(Math.max(1, maxSlotsPercent - minSlotsPercent + 1));
+
+        int count = this.candidateCount;
+        int slotsToAffect = Math.min(count, Math.max(1, (count * slotPercentage) / 100));
+
+        for (int i = 0; i < slotsToAffect; i++) {
+            // Partial Fisher–Yates: only the first slotsToAffect positions are ever drawn
+            int pick = i + random.nextInt(count - i);
+            int slot = this.candidates[pick];
+            this.candidates[pick] = this.candidates[i];
+            this.candidates[i] = slot;
+
+            ItemStack itemStack = snapshot.get(slot);
+
+            if (settings.blacklist.contains(itemStack)) {
+                Gravestones.LOGGER.debug("Item {} is blacklisted from item loss", itemStack.getItem());
+                continue;
+            }
+
+            if (settings.protectEnchantedItems && !itemStack.getEnchantmentTags().isEmpty()
+                    && random.nextInt(100) < settings.enchantedItemProtection) {
+                continue;
+            }
+
+            // Loss mutates the snapshot's stack in place, so there is no source to write back to
+            int lost;
+            if (itemStack.isDamageableItem()) {
+                lost = applyDurabilityLoss(itemStack, settings, random);
+            } else {
+                lost = applyQuantityLoss(itemStack, settings, random);
+            }
+
+            if (lost > 0) {
+                this.itemsLost += lost;
+                this.stacksAffected++;
+            }
+        }
+    }
+
+    private static int applyDurabilityLoss(ItemStack itemStack, DeathSettings settings, RandomSource random) {
+        int maxDamage = itemStack.getMaxDamage();
+        int currentDamage = itemStack.getDamageValue();
+        int remainingDurability = maxDamage - currentDamage;
+
+        if (remainingDurability <= 0) {
+            return 0;
+        }
+
+        int minPercent = settings.minDurabilityLossPercent;
+        int maxPercent = settings.maxDurabilityLossPercent;
+        int damagePercent = minPercent + random.nextInt(Math.max(1, maxPercent - minPercent + 1));
+
+        int damageToApply = Math.max(1, (int) (remainingDurability * (damagePercent / 100.0)));
+
+        int newDamage = Math.min(maxDamage, currentDamage + damageToApply);
+        itemStack.setDamageValue(newDamage);
+
+        if (Gravestones.LOGGER.isDebugEnabled()) {
+            Gravestones.LOGGER.debug("Applied {} durability damage to {} (was {}/{}, now {}/{}, {}% loss)",
+                    damageToApply, itemStack.getDisplayName().getString(),
+                    currentDamage, maxDamage, newDamage, maxDamage, damagePercent);
+        }
+
+        if (newDamage >= maxDamage) {
+            int originalCount = itemStack.getCount();
+            itemStack.setCount(0);
+            Gravestones.LOGGER.debug("Item {} broke completely and was removed", itemStack.getItem());
+            return originalCount;
+        }
+
+        return 0;
+    }
+
+    private static int applyQuantityLoss(ItemStack itemStack, DeathSettings settings, RandomSource random) {
+        int stackSize = itemStack.getCount();
+        int minPercent = settings.minStackLossPercent;
+        int maxPercent = settings.maxStackLossPercent;
+        int lossPercent = minPercent + random.nextInt(Math.max(1, maxPercent - minPercent + 1));
+
+        int itemsToLose = Math.max(1, (int) (stackSize * (lossPercent / 100.0)));
+        itemsToLose = Math.min(itemsToLose, stackSize);
+
+        itemStack.setCount(stackSize - itemsToLose);
+
+        if (Gravestones.LOGGER.isDebugEnabled()) {
+            Gravestones.LOGGER.debug("Lost {} items from stack of {} {} ({}% of stack)",
+                    itemsToLose, stackSize, itemStack.getDisplayName().getString(), lossPercent);
+        }
+
+        return itemsToLose;
+    }
+}
@@ -0,0 +1,104 @@
+package es.boopurno.gravestones.death;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.config.GravestoneConfig;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Remembers the last few spots where each player stood on solid ground, so a
+ * gravestone for a death in lava, the void or mid-air can be placed without
+ * searching the area around the death point.
+ */
+@Mod.EventBusSubscriber(modid = Gravestones.MODID)
+public class SafePositionTracker {
+    public static final int CAPACITY = 8;
+
+    private static final long[] NO_POSITIONS = new long[0];
+    private static final Map<UUID, Ring> RINGS = new HashMap<>();
+
+    @SubscribeEvent
+    public static void onPlayerTick(TickEvent.PlayerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || !(event.player instanceof ServerPlayer player)) {
+            return;
+        }
+
+        if (player.tickCount % GravestoneConfig.SAFE_POSITION_INTERVAL_TICKS.get() != 0) {
+            return;
+        }
+
+        if (!player.onGround() || player.isInLava() || player.isSpectator() || player.isPassenger()) {
+            return;
+        }
+
+        RINGS.computeIfAbsent(player.getUUID(), id -> new Ring())
+                .push(player.level().dimension(), player.blockPosition().asLong());
+    }
+
+    @SubscribeEvent
+    public static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        RINGS.remove(event.getEntity().getUUID());
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        RINGS.clear();
+    }
+
+    /**
+     * Returns the player's recorded positions in their current dimension, newest
+     * first, and forgets them so they are not reused after respawning.
+     */
+    public static long[] takePositions(ServerPlayer player) {
+        Ring ring = RINGS.get(player.getUUID());
+        if (ring == null || ring.dimension != player.level().dimension()) {
+            return NO_POSITIONS;
+        }
+
+        long[] positions = ring.newestFirst();
+        ring.size = 0;
+        return positions;
+    }
+
+    private static final class Ring {
+        private final long[] positions = new long[CAPACITY];
+        private int head = 0;
+        private int size = 0;
+        private ResourceKey<Level> dimension;
+
+        void push(ResourceKey<Level> dimension, long pos) {
+            if (dimension != this.dimension) {
+                this.dimension = dimension;
+                this.size = 0;
+            }
+
+            if (this.size > 0 && this.positions[(this.head + CAPACITY - 1) % CAPACITY] == pos) {
+                return;
+            }
+
+            this.positions[this.head] = pos;
+            this.head = (this.head + 1) % CAPACITY;
+            if (this.size < CAPACITY) {
+                this.size++;
+            }
+        }
+
+        long[] newestFirst() {
+            long[] result = new long[this.size];
+            for (int i = 0; i < this.size; i++) {
+                result[i] = this.positions[(this.head - 1 - i + CAPACITY) % CAPACITY];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package es.boopurno.gravestones.grave;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.block.entity.GravestoneBlockEntity;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.storage.LevelResource;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Expires graves once their lifetime is up.
+ * <p>
+ * Each server tick polls the {@link GraveRegistry}'s timing wheel with the
+ * current game time. Expired graves in loaded chunks are expired on the spot;
+ * the rest are marked pending in the registry and expire from
+ * {@link GravestoneBlockEntity#onLoad()} when their chunk next loads.
+ */
+@Mod.EventBusSubscriber(modid = Gravestones.MODID)
+public class GraveExpiry {
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+
+        MinecraftServer server = event.getServer();
+        GraveRegistry registry = GraveRegistry.get(server);
+        registry.pollExpired(server.overworld().getGameTime(), id -> expire(server, registry, id));
+    }
+
+    private static void expire(MinecraftServer server, GraveRegistry registry, long id) {
+        GraveRecord record = registry.get(id);
+        if (record == null) {
+            return;
+        }
+
+        ServerLevel level = server.getLevel(record.getDimension());
+        if (level != null && level.isLoaded(record.getPos())
+                && level.getBlockEntity(record.getPos()) instanceof GravestoneBlockEntity grave
+                && grave.getGraveId() == id) {
+            grave.expire();
+            return;
+        }
+
+        Gravestones.LOGGER.debug("Grave {} at {} in {} expired while unloaded, expiring it when its chunk loads",
+                id, record.getPos(), record.getDimension().location());
+        registry.markExpiryPending(id);
+    }
+
+    /**
+     * Writes an expired grave's contents to
+     * {@code <world>/gravestones/recovery/grave-<id>.dat} for admins to restore
+     * by hand.
+     *
+     * @return false if the file could not be written, in which case the caller
+     *         should keep the items
+     */
+    public static boolean writeRecoveryFile(MinecraftServer server, long id, CompoundTag contents) {
+        Path directory = server.getWorldPath(LevelResource.ROOT).resolve(Gravestones.MODID).resolve("recovery");
+        Path file = directory.resolve("grave-" + id + ".dat");
+        try {
+            Files.createDirectories(directory);
+            NbtIo.writeCompressed(contents, file.toFile());
+            Gravestones.LOGGER.info("Wrote contents of expired grave {} to {}", id, file);
+            return true;
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to write recovery file for expired grave {}: {}", id, e.getMessage());
+            return false;
+        }
+    }
+}
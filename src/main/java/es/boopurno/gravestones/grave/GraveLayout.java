@@ -0,0 +1,269 @@
+package es.boopurno.gravestones.grave;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Which slot group each grave slot belongs to, which player slot it came from
+ * and where it is drawn in the grave menu.
+ * <p>
+ * Computed once per grave from its {@link GraveSlotGroup}s and their sizes, and
+ * saved with it as a list of group ids and sizes, so graves keep their layout
+ * when integrations are added or removed. Everything that walks grave slots
+ * (storing, restoring, building and drawing the menu) reads these tables rather
+ * than hardcoding offsets. Graves saved before layouts existed are mapped with
+ * {@link #legacy(int)}.
+ */
+public final class GraveLayout {
+    public static final String TAG_LAYOUT = "Layout";
+
+    private static final String TAG_ID = "Id";
+    private static final String TAG_SIZE = "Size";
+    private static final int PANEL_ROWS = 6;
+    private static final int HEADER_HEIGHT = 18;
+
+    public static final GraveLayout VANILLA = create(
+            List.of(GraveSlotGroups.MAIN, GraveSlotGroups.HOTBAR, GraveSlotGroups.ARMOR, GraveSlotGroups.OFFHAND),
+            new int[] { 27, 9, 4, 1 });
+
+    private final GraveSlotGroup[] groups;
+    private final int[] groupStart;
+    private final int[] slotGroup;
+    private final int[] slotSource;
+    private final int[][] sourceToGrave;
+    private final int[] slotX;
+    private final int[] slotY;
+    private final ResourceLocation[] emptyIcons;
+    private final int yOffset;
+    private final int panelSlots;
+
+    private GraveLayout(GraveSlotGroup[] groups, int[] sizes) {
+        this.groups = groups;
+        this.groupStart = new int[groups.length + 1];
+        for (int g = 0; g < groups.length; g++) {
+            this.groupStart[g + 1] = this.groupStart[g] + sizes[g];
+        }
+
+        int size = this.groupStart[groups.length];
+        this.slotGroup = new int[size];
+        this.slotSource = new int[size];
+        this.sourceToGrave = new int[groups.length][];
+        this.slotX = new int[size];
+        this.slotY = new int[size];
+        this.emptyIcons = new ResourceLocation[size];
+
+        boolean hasHeader = false;
+        for (GraveSlotGroup group : groups) {
+            hasHeader |= group.getArea() == GraveSlotGroup.Area.HEADER;
+        }
+        this.yOffset = hasHeader ? HEADER_HEIGHT : 0;
+
+        int panelIndex = 0;
+        for (int g = 0; g < groups.length; g++) {
+            GraveSlotGroup group = groups[g];
+            int fixedSlots = Math.min(sizes[g], group.getSize());
+
+            int maxSource = -1;
+            for (int i = 0; i < fixedSlots; i++) {
+                maxSource = Math.max(maxSource, group.getSourceSlot(i));
+            }
+            this.sourceToGrave[g] = new int[maxSource + 1];
+            Arrays.fill(this.sourceToGrave[g], -1);
+
+            for (int i = 0; i < sizes[g]; i++) {
+                int slot = this.groupStart[g] + i;
+                this.slotGroup[slot] = g;
+
+                if (i < fixedSlots) {
+                    int source = group.getSourceSlot(i);
+                    this.slotSource[slot] = source;
+                    this.sourceToGrave[g][source] = slot;
+                    this.slotX[slot] = group.getGuiX(i);
+                    this.slotY[slot] = group.getGuiY(i)
+                            + (group.getArea() == GraveSlotGroup.Area.BODY ? this.yOffset : 0);
+                    this.emptyIcons[slot] = group.getEmptyIcon(i);
+                } else {
+                    // Dynamic slots, and any a fixed group was saved with beyond its current size
+                    this.slotSource[slot] = -1;
+                    this.slotX[slot] = -25 - (panelIndex / PANEL_ROWS) * 18;
+                    this.slotY[slot] = (panelIndex % PANEL_ROWS) * 18 + this.yOffset;
+                    panelIndex++;
+                }
+            }
+        }
+        this.panelSlots = panelIndex;
+    }
+
+    /**
+     * Builds a layout from groups and the number of slots each one gets. Groups
+     * given no slots are left out.
+     */
+    public static GraveLayout create(List<GraveSlotGroup> groups, int[] sizes) {
+        int kept = 0;
+        for (int size : sizes) {
+            if (size > 0) {
+                kept++;
+            }
+        }
+
+        GraveSlotGroup[] keptGroups = new GraveSlotGroup[kept];
+        int[] keptSizes = new int[kept];
+        int k = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            if (sizes[g] > 0) {
+                keptGroups[k] = groups.get(g);
+                keptSizes[k] = sizes[g];
+                k++;
+            }
+        }
+        return new GraveLayout(keptGroups, keptSizes);
+    }
+
+    /**
+     * The fixed layout every grave used before layouts were saved: 41 vanilla
+     * slots, then 4 cosmetic armor slots, then curios from slot 45.
+     */
+    public static GraveLayout legacy(int size) {
+        List<GraveSlotGroup> groups = GraveSlotGroups.legacyGroups(size);
+        int[] sizes = new int[groups.size()];
+        int[] legacySizes = { 27, 9, 4, 1, 4, Math.max(0, size - 45) };
+        int remaining = size;
+        for (int g = 0; g < sizes.length; g++) {
+            sizes[g] = Math.min(legacySizes[g], remaining);
+            remaining -= sizes[g];
+        }
+        return create(groups, sizes);
+    }
+
+    public int size() {
+        return this.slotGroup.length;
+    }
+
+    public int getGroupCount() {
+        return this.groups.length;
+    }
+
+    public GraveSlotGroup getGroup(int group) {
+        return this.groups[group];
+    }
+
+    public int getGroupStart(int group) {
+        return this.groupStart[group];
+    }
+
+    public int getGroupSize(int group) {
+        return this.groupStart[group + 1] - this.groupStart[group];
+    }
+
+    public int getGroupIndex(int slot) {
+        return this.slotGroup[slot];
+    }
+
+    /**
+     * The slot in the group's source container that a grave slot came from, or
+     * -1 for dynamic slots, which go back to any free slot that accepts them.
+     */
+    public int getSourceSlot(int slot) {
+        return this.slotSource[slot];
+    }
+
+    /**
+     * The grave slot holding a source container slot of a group, or -1.
+     */
+    public int getGraveSlot(int group, int sourceSlot) {
+        int[] table = this.sourceToGrave[group];
+        return sourceSlot >= 0 && sourceSlot < table.length ? table[sourceSlot] : -1;
+    }
+
+    public int getSlotX(int slot) {
+        return this.slotX[slot];
+    }
+
+    public int getSlotY(int slot) {
+        return this.slotY[slot];
+    }
+
+    @Nullable
+    public ResourceLocation getEmptyIcon(int slot) {
+        return this.emptyIcons[slot];
+    }
+
+    public boolean isInArea(int slot, GraveSlotGroup.Area area) {
+        GraveSlotGroup group = this.groups[this.slotGroup[slot]];
+        if (this.slotSource[slot] < 0) {
+            return area == GraveSlotGroup.Area.PANEL;
+        }
+        return group.getArea() == area;
+    }
+
+    /**
+     * How far header groups push the rest of the menu down.
+     */
+    public int getYOffset() {
+        return this.yOffset;
+    }
+
+    public boolean hasHeader() {
+        return this.yOffset > 0;
+    }
+
+    public int getPanelSlots() {
+        return this.panelSlots;
+    }
+
+    public static int getPanelRows() {
+        return PANEL_ROWS;
+    }
+
+    public ListTag save() {
+        ListTag list = new ListTag();
+        for (int g = 0; g < this.groups.length; g++) {
+            CompoundTag groupTag = new CompoundTag();
+            groupTag.putString(TAG_ID, this.groups[g].getId());
+            groupTag.putShort(TAG_SIZE, (short) getGroupSize(g));
+            list.add(groupTag);
+        }
+        return list;
+    }
+
+    public static GraveLayout load(ListTag list) {
+        GraveSlotGroup[] groups = new GraveSlotGroup[list.size()];
+        int[] sizes = new int[list.size()];
+        for (int g = 0; g < list.size(); g++) {
+            CompoundTag groupTag = list.getCompound(g);
+            groups[g] = GraveSlotGroups.get(groupTag.getString(TAG_ID));
+            sizes[g] = groupTag.getShort(TAG_SIZE) & 0xFFFF;
+        }
+        return create(Arrays.asList(groups), sizes);
+    }
+
+    public static boolean isSaved(CompoundTag blockEntityTag) {
+        return blockEntityTag.contains(TAG_LAYOUT, Tag.TAG_LIST);
+    }
+
+    public void write(FriendlyByteBuf buf) {
+        buf.writeVarInt(this.groups.length);
+        for (int g = 0; g < this.groups.length; g++) {
+            buf.writeUtf(this.groups[g].getId());
+            buf.writeVarInt(getGroupSize(g));
+        }
+    }
+
+    public static GraveLayout read(FriendlyByteBuf buf) {
+        int count = buf.readVarInt();
+        GraveSlotGroup[] groups = new GraveSlotGroup[count];
+        int[] sizes = new int[count];
+        for (int g = 0; g < count; g++) {
+            groups[g] = GraveSlotGroups.get(buf.readUtf());
+            sizes[g] = buf.readVarInt();
+        }
+        return create(Arrays.asList(groups), sizes);
+    }
+}
@@ -0,0 +1,116 @@
+package es.boopurno.gravestones.grave;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+import java.util.UUID;
+
+/**
+ * What the {@link GraveRegistry} knows about one grave without loading its
+ * chunk: who it belongs to, where it is, when it was made and how many items it
+ * holds.
+ */
+public final class GraveRecord {
+    private static final String TAG_ID = "Id";
+    private static final String TAG_OWNER = "Owner";
+    private static final String TAG_DIMENSION = "Dim";
+    private static final String TAG_POS = "Pos";
+    private static final String TAG_CREATED = "Created";
+    private static final String TAG_ITEMS = "Items";
+    private static final String TAG_EXPIRES = "Expires";
+
+    private final long id;
+    private final UUID owner;
+    private final ResourceKey<Level> dimension;
+    private final BlockPos pos;
+    private final long createdAt;
+    private long expiresAt;
+    private int itemCount;
+
+    GraveRecord(long id, UUID owner, ResourceKey<Level> dimension, BlockPos pos, long createdAt, long expiresAt,
+            int itemCount) {
+        this.id = id;
+        this.owner = owner;
+        this.dimension = dimension;
+        this.pos = pos.immutable();
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+        this.itemCount = itemCount;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * The owner's UUID, or {@link net.minecraft.Util#NIL_UUID} for graves placed
+     * before owners were recorded.
+     */
+    public UUID getOwner() {
+        return this.owner;
+    }
+
+    public ResourceKey<Level> getDimension() {
+        return this.dimension;
+    }
+
+    public BlockPos getPos() {
+        return this.pos;
+    }
+
+    public long getChunkKey() {
+        return ChunkPos.asLong(this.pos.getX() >> 4, this.pos.getZ() >> 4);
+    }
+
+    /**
+     * Game time the grave was placed at.
+     */
+    public long getCreatedAt() {
+        return this.createdAt;
+    }
+
+    /**
+     * Game time the grave expires at, or 0 if it never does.
+     */
+    public long getExpiresAt() {
+        return this.expiresAt;
+    }
+
+    void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public int getItemCount() {
+        return this.itemCount;
+    }
+
+    void setItemCount(int itemCount) {
+        this.itemCount = itemCount;
+    }
+
+    CompoundTag save() {
+        CompoundTag tag = new CompoundTag();
+        tag.putLong(TAG_ID, this.id);
+        tag.putUUID(TAG_OWNER, this.owner);
+        tag.putString(TAG_DIMENSION, this.dimension.location().toString());
+        tag.putLong(TAG_POS, this.pos.asLong());
+        tag.putLong(TAG_CREATED, this.createdAt);
+        if (this.expiresAt != 0) {
+            tag.putLong(TAG_EXPIRES, this.expiresAt);
+        }
+        tag.putInt(TAG_ITEMS, this.itemCount);
+        return tag;
+    }
+
+    static GraveRecord load(CompoundTag tag) {
+        return new GraveRecord(tag.getLong(TAG_ID), tag.getUUID(TAG_OWNER),
+                ResourceKey.create(Registries.DIMENSION, new ResourceLocation(tag.getString(TAG_DIMENSION))),
+                BlockPos.of(tag.getLong(TAG_POS)), tag.getLong(TAG_CREATED), tag.getLong(TAG_EXPIRES),
+                tag.getInt(TAG_ITEMS));
+    }
+}
@@ -0,0 +1,347 @@
+package es.boopurno.gravestones.grave;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.config.GravestoneConfig;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.saveddata.SavedData;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+/**
+ * Every grave on the server, saved with the overworld so graves can be found
+ * without loading their chunks.
+ * <p>
+ * Records are keyed by a grave id handed out by {@link #register}. Two indexes
+ * are kept next to them, both on primitive long keys: one by owner, keyed on
+ * the two halves of the owner UUID folded together (records are checked against
+ * the full UUID, so a fold collision only costs a comparison), and one per
+ * dimension keyed by {@link ChunkPos#toLong()}. Graves register themselves when
+ * placed and unregister when their block is removed; a grave whose record has
+ * gone missing is re-added from its block entity when its chunk loads.
+ * <p>
+ * Graves with a lifetime also get an expiry deadline in game time, saved with
+ * their record. Deadlines are kept in a {@link TimingWheel}, so checking for
+ * expiries costs the same each tick however many graves there are. The wheel is
+ * rebuilt on the first poll after loading and on the first poll after the
+ * configured lifetime changes, recomputing every deadline from the grave's
+ * creation time and the lifetime now in effect. A grave that expires while its
+ * chunk is unloaded is remembered as pending until the chunk loads again.
+ */
+public final class GraveRegistry extends SavedData {
+    private static final String DATA_NAME = Gravestones.MODID + "_graves";
+    private static final String TAG_NEXT_ID = "NextId";
+    private static final String TAG_GRAVES = "Graves";
+    private static final String TAG_PENDING_EXPIRY = "PendingExpiry";
+
+    private final Long2ObjectOpenHashMap<GraveRecord> graves = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectOpenHashMap<LongArrayList> byOwner = new Long2ObjectOpenHashMap<>();
+    private final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<LongArrayList>> byChunk = new HashMap<>();
+    private final LongOpenHashSet pendingExpiry = new LongOpenHashSet();
+    @Nullable
+    private TimingWheel expiries;
+    // Lifetime the deadlines in the wheel were computed with
+    private long expiriesLifetimeTicks;
+    private long nextId = 1;
+
+    public static GraveRegistry get(MinecraftServer server) {
+        return server.overworld().getDataStorage().computeIfAbsent(GraveRegistry::load, GraveRegistry::new,
+                DATA_NAME);
+    }
+
+    private static GraveRegistry load(CompoundTag tag) {
+        GraveRegistry registry = new GraveRegistry();
+        registry.nextId = Math.max(1, tag.getLong(TAG_NEXT_ID));
+
+        ListTag graves = tag.getList(TAG_GRAVES, Tag.TAG_COMPOUND);
+        for (int i = 0; i < graves.size(); i++) {
+            registry.index(GraveRecord.load(graves.getCompound(i)));
+        }
+        for (long id : tag.getLongArray(TAG_PENDING_EXPIRY)) {
+            if (registry.graves.containsKey(id)) {
+                registry.pendingExpiry.add(id);
+            }
+        }
+        Gravestones.LOGGER.debug("Loaded {} registered graves", registry.graves.size());
+        return registry;
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag tag) {
+        tag.putLong(TAG_NEXT_ID, this.nextId);
+
+        ListTag graves = new ListTag();
+        for (GraveRecord record : this.graves.values()) {
+            graves.add(record.save());
+        }
+        tag.put(TAG_GRAVES, graves);
+        if (!this.pendingExpiry.isEmpty()) {
+            tag.putLongArray(TAG_PENDING_EXPIRY, this.pendingExpiry.toLongArray());
+        }
+        return tag;
+    }
+
+    /**
+     * Records a newly placed grave and returns its id.
+     */
+    public long register(UUID owner, ResourceKey<Level> dimension, BlockPos pos, long createdAt, int itemCount) {
+        GraveRecord record = new GraveRecord(this.nextId++, owner, dimension, pos, createdAt, expiryFor(createdAt),
+                itemCount);
+        index(record);
+        scheduleExpiry(record);
+        setDirty();
+        return record.getId();
+    }
+
+    /**
+     * Re-adds a grave that already has an id, for block entities whose record is
+     * missing (graves from before the registry, or a registry file that was lost).
+     */
+    public void restore(long id, UUID owner, ResourceKey<Level> dimension, BlockPos pos, long createdAt,
+            int itemCount) {
+        if (this.graves.containsKey(id)) {
+            return;
+        }
+        GraveRecord record = new GraveRecord(id, owner, dimension, pos, createdAt, expiryFor(createdAt), itemCount);
+        index(record);
+        scheduleExpiry(record);
+        this.nextId = Math.max(this.nextId, id + 1);
+        setDirty();
+    }
+
+    public void unregister(long id) {
+        GraveRecord record = this.graves.remove(id);
+        if (record == null) {
+            return;
+        }
+
+        if (this.expiries != null) {
+            this.expiries.cancel(id);
+        }
+        this.pendingExpiry.remove(id);
+        removeFrom(this.byOwner, ownerKey(record.getOwner()), id);
+        Long2ObjectOpenHashMap<LongArrayList> chunks = this.byChunk.get(record.getDimension());
+        if (chunks != null) {
+            removeFrom(chunks, record.getChunkKey(), id);
+        }
+        setDirty();
+    }
+
+    /**
+     * Re-dates a grave that just took in another death, restarting its lifetime
+     * and its merge window from {@code createdAt}.
+     */
+    public void renew(long id, long createdAt) {
+        GraveRecord old = this.graves.get(id);
+        if (old == null) {
+            return;
+        }
+
+        // Owner and position are unchanged, so the indexes already point at the right id
+        GraveRecord record = new GraveRecord(id, old.getOwner(), old.getDimension(), old.getPos(), createdAt,
+                expiryFor(createdAt), old.getItemCount());
+        this.graves.put(id, record);
+        this.pendingExpiry.remove(id);
+        if (this.expiries != null) {
+            this.expiries.cancel(id);
+        }
+        scheduleExpiry(record);
+        setDirty();
+    }
+
+    public void updateItemCount(long id, int itemCount) {
+        GraveRecord record = this.graves.get(id);
+        if (record != null && record.getItemCount() != itemCount) {
+            record.setItemCount(itemCount);
+            setDirty();
+        }
+    }
+
+    private static long expiryFor(long createdAt) {
+        return expiryFor(createdAt, lifetimeTicks());
+    }
+
+    private static long expiryFor(long createdAt, long lifetimeTicks) {
+        return lifetimeTicks > 0 ? createdAt + lifetimeTicks : 0;
+    }
+
+    private static long lifetimeTicks() {
+        return GravestoneConfig.GRAVE_LIFETIME_MINUTES.get() * 1200L;
+    }
+
+    private void scheduleExpiry(GraveRecord record) {
+        if (this.expiries != null && record.getExpiresAt() != 0) {
+            this.expiries.schedule(record.getId(), record.getExpiresAt());
+        }
+    }
+
+    /**
+     * Hands every grave that has expired by game time {@code now} to
+     * {@code expired}. Each grave is handed out once; it stays registered until
+     * its block is actually removed.
+     */
+    public void pollExpired(long now, LongConsumer expired) {
+        long lifetimeTicks = lifetimeTicks();
+        if (this.expiries == null || lifetimeTicks != this.expiriesLifetimeTicks) {
+            rebuildExpiries(now, lifetimeTicks);
+        }
+        this.expiries.advance(now, expired);
+    }
+
+    /**
+     * Recomputes every deadline as creation time plus {@code lifetimeTicks} and
+     * schedules them in a new wheel. Graves pending expiry whose new deadline is
+     * no longer due, or that no longer expire at all, stop being pending.
+     */
+    private void rebuildExpiries(long now, long lifetimeTicks) {
+        if (this.expiries != null) {
+            Gravestones.LOGGER.info("Grave lifetime changed to {} minutes, rescheduling {} graves",
+                    lifetimeTicks / 1200L, this.graves.size());
+        }
+        this.expiries = new TimingWheel(now);
+        this.expiriesLifetimeTicks = lifetimeTicks;
+
+        for (GraveRecord record : this.graves.values()) {
+            long expiresAt = expiryFor(record.getCreatedAt(), lifetimeTicks);
+            if (record.getExpiresAt() != expiresAt) {
+                record.setExpiresAt(expiresAt);
+                setDirty();
+            }
+            if (this.pendingExpiry.contains(record.getId())) {
+                if (expiresAt != 0 && expiresAt <= now) {
+                    continue;
+                }
+                this.pendingExpiry.remove(record.getId());
+                setDirty();
+            }
+            if (expiresAt != 0) {
+                this.expiries.schedule(record.getId(), expiresAt);
+            }
+        }
+    }
+
+    /**
+     * Remembers that a grave expired while its chunk was not loaded, so the grave
+     * can finish expiring when it next loads.
+     */
+    public void markExpiryPending(long id) {
+        if (this.graves.containsKey(id) && this.pendingExpiry.add(id)) {
+            setDirty();
+        }
+    }
+
+    public boolean isExpiryPending(long id) {
+        return this.pendingExpiry.contains(id);
+    }
+
+    @Nullable
+    public GraveRecord get(long id) {
+        return this.graves.get(id);
+    }
+
+    public int size() {
+        return this.graves.size();
+    }
+
+    public Collection<GraveRecord> all() {
+        return Collections.unmodifiableCollection(this.graves.values());
+    }
+
+    public List<GraveRecord> getByOwner(UUID owner) {
+        LongArrayList ids = this.byOwner.get(ownerKey(owner));
+        if (ids == null) {
+            return List.of();
+        }
+
+        List<GraveRecord> records = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            GraveRecord record = this.graves.get(ids.getLong(i));
+            if (record.getOwner().equals(owner)) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    public List<GraveRecord> getInChunk(ResourceKey<Level> dimension, int chunkX, int chunkZ) {
+        Long2ObjectOpenHashMap<LongArrayList> chunks = this.byChunk.get(dimension);
+        LongArrayList ids = chunks == null ? null : chunks.get(ChunkPos.asLong(chunkX, chunkZ));
+        if (ids == null) {
+            return List.of();
+        }
+
+        List<GraveRecord> records = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            records.add(this.graves.get(ids.getLong(i)));
+        }
+        return records;
+    }
+
+    /**
+     * Graves within {@code radius} blocks of {@code pos} on each horizontal axis,
+     * found by looking up only the chunks that square covers.
+     */
+    public List<GraveRecord> findNear(ResourceKey<Level> dimension, BlockPos pos, int radius) {
+        Long2ObjectOpenHashMap<LongArrayList> chunks = this.byChunk.get(dimension);
+        if (chunks == null) {
+            return List.of();
+        }
+
+        List<GraveRecord> records = new ArrayList<>();
+        for (int chunkX = (pos.getX() - radius) >> 4; chunkX <= (pos.getX() + radius) >> 4; chunkX++) {
+            for (int chunkZ = (pos.getZ() - radius) >> 4; chunkZ <= (pos.getZ() + radius) >> 4; chunkZ++) {
+                LongArrayList ids = chunks.get(ChunkPos.asLong(chunkX, chunkZ));
+                if (ids == null) {
+                    continue;
+                }
+                for (int i = 0; i < ids.size(); i++) {
+                    GraveRecord record = this.graves.get(ids.getLong(i));
+                    if (Math.abs(record.getPos().getX() - pos.getX()) <= radius
+                            && Math.abs(record.getPos().getZ() - pos.getZ()) <= radius) {
+                        records.add(record);
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
+    private void index(GraveRecord record) {
+        this.graves.put(record.getId(), record);
+        this.byOwner.computeIfAbsent(ownerKey(record.getOwner()), key -> new LongArrayList(2)).add(record.getId());
+        this.byChunk.computeIfAbsent(record.getDimension(), dimension -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(record.getChunkKey(), key -> new LongArrayList(2)).add(record.getId());
+    }
+
+    private static void removeFrom(Long2ObjectOpenHashMap<LongArrayList> index, long key, long id) {
+        LongArrayList ids = index.get(key);
+        if (ids == null) {
+            return;
+        }
+        ids.rem(id);
+        if (ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static long ownerKey(UUID owner) {
+        return owner.getMostSignificantBits() ^ owner.getLeastSignificantBits();
+    }
+}
@@ -0,0 +1,185 @@
+package es.boopurno.gravestones.grave;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.items.IItemHandlerModifiable;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A named run of grave slots that comes from one player container, such as the
+ * hotbar, the armor slots or an integration's extra slots.
+ * <p>
+ * Fixed groups always have the same slots, each mapped to a source slot in the
+ * player's container and to a position in the grave menu. Dynamic groups are
+ * sized per death from whatever the player actually had, and are laid out in the
+ * side panel of the menu. Groups are registered in {@link GraveSlotGroups} and
+ * combined into a {@link GraveLayout} for each grave.
+ */
+public final class GraveSlotGroup {
+    private static final Capture EMPTY_CAPTURE = new Capture() {
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public ItemStack get(int index) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        @Override
+        public void clearSource() {
+        }
+    };
+
+    private final String id;
+    private final Area area;
+    private final boolean accessory;
+    private final int[] sourceSlots;
+    private final int[] guiX;
+    private final int[] guiY;
+    @Nullable
+    private final ResourceLocation[] emptyIcons;
+    private final Source source;
+    @Nullable
+    private final Capturer capturer;
+
+    /**
+     * Where the group's slots sit in the grave menu. {@link #HEADER} groups take
+     * the row above the armor slots and push the rest of the menu down.
+     */
+    public enum Area {
+        BODY,
+        HEADER,
+        PANEL
+    }
+
+    /**
+     * Opens the player's container this group is taken from and restored to.
+     */
+    @FunctionalInterface
+    public interface Source {
+        @Nullable
+        IItemHandlerModifiable open(Player player);
+    }
+
+    /**
+     * Walks a dynamic group's container once at death.
+     */
+    @FunctionalInterface
+    public interface Capturer {
+        Capture capture(Player player);
+    }
+
+    /**
+     * The occupied slots of a dynamic group at death. The player's slots keep
+     * their stacks until {@link #clearSource()} is called.
+     */
+    public interface Capture {
+        int size();
+
+        ItemStack get(int index);
+
+        void clearSource();
+    }
+
+    private GraveSlotGroup(String id, Area area, boolean accessory, int[] sourceSlots, int[] guiX, int[] guiY,
+            @Nullable ResourceLocation[] emptyIcons, Source source, @Nullable Capturer capturer) {
+        this.id = id;
+        this.area = area;
+        this.accessory = accessory;
+        this.sourceSlots = sourceSlots;
+        this.guiX = guiX;
+        this.guiY = guiY;
+        this.emptyIcons = emptyIcons;
+        this.source = source;
+        this.capturer = capturer;
+    }
+
+    /**
+     * A group whose grave slot {@code i} always holds source slot
+     * {@code sourceSlots[i]}, drawn at {@code (guiX[i], guiY[i])}.
+     */
+    public static GraveSlotGroup fixed(String id, Area area, int[] sourceSlots, int[] guiX, int[] guiY,
+            @Nullable ResourceLocation[] emptyIcons, Source source) {
+        if (area == Area.PANEL) {
+            throw new IllegalArgumentException("Fixed slot group " + id + " cannot be placed in the side panel");
+        }
+        if (guiX.length != sourceSlots.length || guiY.length != sourceSlots.length
+                || (emptyIcons != null && emptyIcons.length != sourceSlots.length)) {
+            throw new IllegalArgumentException("Slot group " + id + " has mismatched slot tables");
+        }
+        return new GraveSlotGroup(id, area, false, sourceSlots, guiX, guiY, emptyIcons, source, null);
+    }
+
+    /**
+     * A group sized per death from its {@link Capture}. Accessory groups are only
+     * affected by item loss when {@code affectCuriosItems} is enabled.
+     */
+    public static GraveSlotGroup dynamic(String id, boolean accessory, Source source, Capturer capturer) {
+        return new GraveSlotGroup(id, Area.PANEL, accessory, new int[0], new int[0], new int[0], null, source,
+                capturer);
+    }
+
+    /**
+     * Stand-in for a group saved in a grave whose integration is no longer
+     * registered; its items are restored to the main inventory or dropped.
+     */
+    static GraveSlotGroup missing(String id) {
+        return new GraveSlotGroup(id, Area.PANEL, true, new int[0], new int[0], new int[0], null, player -> null,
+                player -> EMPTY_CAPTURE);
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public Area getArea() {
+        return this.area;
+    }
+
+    public boolean isAccessory() {
+        return this.accessory;
+    }
+
+    public boolean isDynamic() {
+        return this.capturer != null;
+    }
+
+    /**
+     * Number of slots of a fixed group; dynamic groups report 0.
+     */
+    public int getSize() {
+        return this.sourceSlots.length;
+    }
+
+    int getSourceSlot(int index) {
+        return this.sourceSlots[index];
+    }
+
+    int getGuiX(int index) {
+        return this.guiX[index];
+    }
+
+    int getGuiY(int index) {
+        return this.guiY[index];
+    }
+
+    @Nullable
+    ResourceLocation getEmptyIcon(int index) {
+        return this.emptyIcons == null ? null : this.emptyIcons[index];
+    }
+
+    @Nullable
+    public IItemHandlerModifiable open(Player player) {
+        return this.source.open(player);
+    }
+
+    public Capture capture(Player player) {
+        if (this.capturer == null) {
+            throw new IllegalStateException("Slot group " + this.id + " is not dynamic");
+        }
+        return this.capturer.capture(player);
+    }
+}
@@ -0,0 +1,138 @@
+package es.boopurno.gravestones.grave;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.integration.CosmeticArmorIntegration;
+import es.boopurno.gravestones.integration.CuriosIntegration;
+import es.boopurno.gravestones.integration.CuriosSnapshot;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraftforge.items.IItemHandlerModifiable;
+import net.minecraftforge.items.wrapper.CombinedInvWrapper;
+import net.minecraftforge.items.wrapper.InvWrapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the slot groups a new grave is built from, in grave slot order.
+ * <p>
+ * The vanilla groups are always present. Integrations register their own group
+ * during common setup, after which {@link #active()} includes it in every new
+ * grave's layout without any other class needing to know about it.
+ */
+public final class GraveSlotGroups {
+    private static final ResourceLocation EMPTY_HELMET = new ResourceLocation("minecraft",
+            "textures/item/empty_armor_slot_helmet.png");
+    private static final ResourceLocation EMPTY_CHESTPLATE = new ResourceLocation("minecraft",
+            "textures/item/empty_armor_slot_chestplate.png");
+    private static final ResourceLocation EMPTY_LEGGINGS = new ResourceLocation("minecraft",
+            "textures/item/empty_armor_slot_leggings.png");
+    private static final ResourceLocation EMPTY_BOOTS = new ResourceLocation("minecraft",
+            "textures/item/empty_armor_slot_boots.png");
+    private static final ResourceLocation EMPTY_SHIELD = new ResourceLocation("minecraft",
+            "textures/item/empty_armor_slot_shield.png");
+    private static final ResourceLocation[] ARMOR_ICONS = {
+            EMPTY_BOOTS, EMPTY_LEGGINGS, EMPTY_CHESTPLATE, EMPTY_HELMET
+    };
+
+    private static final GraveSlotGroup.Source PLAYER_INVENTORY = player -> new InvWrapper(player.getInventory());
+
+    // Source slots below are Inventory container indices: 0-8 hotbar, 9-35 main, 36-39 armor, 40 offhand
+    public static final GraveSlotGroup MAIN = GraveSlotGroup.fixed("main", GraveSlotGroup.Area.BODY,
+            range(9, 27), gridX(8, 9, 27), gridY(40, 9, 27), null, PLAYER_INVENTORY);
+    public static final GraveSlotGroup HOTBAR = GraveSlotGroup.fixed("hotbar", GraveSlotGroup.Area.BODY,
+            range(0, 9), gridX(8, 9, 9), gridY(98, 9, 9), null, PLAYER_INVENTORY);
+    public static final GraveSlotGroup ARMOR = GraveSlotGroup.fixed("armor", GraveSlotGroup.Area.BODY,
+            range(36, 4), gridX(8, 4, 4), gridY(18, 4, 4), ARMOR_ICONS, PLAYER_INVENTORY);
+    public static final GraveSlotGroup OFFHAND = GraveSlotGroup.fixed("offhand", GraveSlotGroup.Area.BODY,
+            range(40, 1), new int[] { 80 }, new int[] { 18 }, new ResourceLocation[] { EMPTY_SHIELD },
+            PLAYER_INVENTORY);
+
+    public static final GraveSlotGroup COSMETIC_ARMOR = GraveSlotGroup.fixed("cosmetic_armor",
+            GraveSlotGroup.Area.HEADER, range(0, 4), gridX(8, 4, 4), gridY(18, 4, 4), ARMOR_ICONS,
+            player -> CosmeticArmorIntegration.access().getStacks(player));
+    public static final GraveSlotGroup CURIOS = GraveSlotGroup.dynamic("curios", true,
+            player -> {
+                Map<String, IItemHandlerModifiable> stacks = CuriosIntegration.access().getStacks(player);
+                return stacks.isEmpty() ? null
+                        : new CombinedInvWrapper(stacks.values().toArray(new IItemHandlerModifiable[0]));
+            },
+            CuriosSnapshot::capture);
+
+    private static final Map<String, GraveSlotGroup> GROUPS = new LinkedHashMap<>();
+    private static volatile List<GraveSlotGroup> active = List.of();
+
+    static {
+        register(MAIN);
+        register(HOTBAR);
+        register(ARMOR);
+        register(OFFHAND);
+    }
+
+    private GraveSlotGroups() {
+    }
+
+    public static synchronized void register(GraveSlotGroup group) {
+        if (GROUPS.putIfAbsent(group.getId(), group) != null) {
+            throw new IllegalArgumentException("Duplicate grave slot group: " + group.getId());
+        }
+        active = List.copyOf(GROUPS.values());
+        Gravestones.LOGGER.debug("Registered grave slot group {}", group.getId());
+    }
+
+    /**
+     * Groups used for new graves, in slot order.
+     */
+    public static List<GraveSlotGroup> active() {
+        return active;
+    }
+
+    /**
+     * Looks up a group saved in a grave, falling back to a stand-in if the
+     * integration that registered it is not present.
+     */
+    public static GraveSlotGroup get(String id) {
+        for (GraveSlotGroup group : active) {
+            if (group.getId().equals(id)) {
+                return group;
+            }
+        }
+        return GraveSlotGroup.missing(id);
+    }
+
+    private static int[] range(int start, int count) {
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = start + i;
+        }
+        return slots;
+    }
+
+    private static int[] gridX(int x, int columns, int count) {
+        int[] xs = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = x + (i % columns) * 18;
+        }
+        return xs;
+    }
+
+    private static int[] gridY(int y, int columns, int count) {
+        int[] ys = new int[count];
+        for (int i = 0; i < count; i++) {
+            ys[i] = y + (i / columns) * 18;
+        }
+        return ys;
+    }
+
+    static List<GraveSlotGroup> legacyGroups(int size) {
+        List<GraveSlotGroup> groups = new ArrayList<>(List.of(MAIN, HOTBAR, ARMOR, OFFHAND));
+        if (size > 41) {
+            groups.add(get(COSMETIC_ARMOR.getId()));
+        }
+        if (size > 45) {
+            groups.add(get(CURIOS.getId()));
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,140 @@
+package es.boopurno.gravestones.grave;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.core.NonNullList;
+import net.minecraft.world.entity.player.Inventory;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+
+/**
+ * Places grave stacks that could not go back to their original slot into the
+ * player's main inventory, following the same rules as {@link Inventory#add}.
+ * <p>
+ * {@code Inventory.add} rescans all 36 slots for a merge target and then for a
+ * free slot on every call, which makes restoring a full grave into a full kit
+ * quadratic. The planner scans the inventory once, keeping the empty slots in
+ * ascending order and the partially filled slots grouped by item, and then
+ * assigns each stack from those indexes, updating them as slots fill up. Stacks
+ * are moved into the inventory rather than copied; whatever is left in a stack
+ * after {@link #place} returns is true overflow.
+ */
+public final class RestorePlanner {
+    private final Inventory inventory;
+    private final NonNullList<ItemStack> items;
+    private final int[] freeSlots;
+    private int freeCount;
+    private int nextFree;
+    private final Reference2ObjectOpenHashMap<Item, IntArrayList> partialSlots = new Reference2ObjectOpenHashMap<>();
+    private boolean changed;
+
+    public RestorePlanner(Inventory inventory) {
+        this.inventory = inventory;
+        this.items = inventory.items;
+        this.freeSlots = new int[this.items.size()];
+
+        for (int slot = 0; slot < this.items.size(); slot++) {
+            if (this.items.get(slot).isEmpty()) {
+                this.freeSlots[this.freeCount++] = slot;
+            }
+        }
+
+        // Same merge preference as Inventory.getSlotWithRemainingSpace: the
+        // selected hotbar slot first, then the rest in slot order
+        if (Inventory.isHotbarSlot(inventory.selected)) {
+            indexPartial(inventory.selected);
+        }
+        for (int slot = 0; slot < this.items.size(); slot++) {
+            if (slot != inventory.selected) {
+                indexPartial(slot);
+            }
+        }
+    }
+
+    private void indexPartial(int slot) {
+        ItemStack stack = this.items.get(slot);
+        if (!stack.isEmpty() && hasSpace(stack)) {
+            this.partialSlots.computeIfAbsent(stack.getItem(), item -> new IntArrayList(2)).add(slot);
+        }
+    }
+
+    /**
+     * Moves as much of {@code stack} into the inventory as fits, merging into
+     * matching partial stacks before taking an empty slot. The stack is shrunk by
+     * what was placed, and may itself end up in the inventory.
+     *
+     * @return true if the whole stack was placed
+     */
+    public boolean place(ItemStack stack) {
+        if (stack.isEmpty()) {
+            return true;
+        }
+
+        if (stack.isStackable() && !stack.isDamaged()) {
+            mergeIntoPartials(stack);
+            if (stack.isEmpty()) {
+                return true;
+            }
+        }
+
+        if (this.nextFree >= this.freeCount) {
+            return false;
+        }
+
+        int slot = this.freeSlots[this.nextFree++];
+        ItemStack placed = stack.copyAndClear();
+        placed.setPopTime(5);
+        this.items.set(slot, placed);
+        this.changed = true;
+
+        if (hasSpace(placed)) {
+            this.partialSlots.computeIfAbsent(placed.getItem(), item -> new IntArrayList(2)).add(slot);
+        }
+        return true;
+    }
+
+    private void mergeIntoPartials(ItemStack stack) {
+        IntArrayList slots = this.partialSlots.get(stack.getItem());
+        if (slots == null) {
+            return;
+        }
+
+        for (int i = 0; i < slots.size() && !stack.isEmpty(); ) {
+            ItemStack existing = this.items.get(slots.getInt(i));
+            if (!ItemStack.isSameItemSameTags(existing, stack)) {
+                i++;
+                continue;
+            }
+
+            int moved = Math.min(stack.getCount(), limit(existing) - existing.getCount());
+            existing.grow(moved);
+            existing.setPopTime(5);
+            stack.shrink(moved);
+            this.changed = true;
+
+            if (hasSpace(existing)) {
+                i++;
+            } else {
+                slots.removeInt(i);
+            }
+        }
+    }
+
+    /**
+     * Marks the inventory changed once if anything was placed.
+     */
+    public void finish() {
+        if (this.changed) {
+            this.inventory.setChanged();
+            this.changed = false;
+        }
+    }
+
+    private boolean hasSpace(ItemStack stack) {
+        return stack.isStackable() && stack.getCount() < limit(stack);
+    }
+
+    private int limit(ItemStack stack) {
+        return Math.min(stack.getMaxStackSize(), this.inventory.getMaxStackSize());
+    }
+}
@@ -0,0 +1,160 @@
+package es.boopurno.gravestones.grave;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Hierarchical timing wheel of long ids keyed on game time.
+ * <p>
+ * Four levels of 64 buckets cover 2^24 ticks (about 9.7 days); level {@code l}
+ * buckets hold ids due within the current 64^(l+1)-tick span, and are cascaded
+ * into the level below when game time reaches the start of their range.
+ * Anything further out waits in an overflow list that is re-placed once per
+ * span. Advancing one tick is a few mask checks plus the one level-0 bucket that
+ * is due, however many ids are scheduled. Cancelled ids are only forgotten in
+ * the deadline map and skipped when their bucket comes up.
+ * <p>
+ * The wheel itself is not saved; its owner rebuilds it from saved deadlines.
+ */
+final class TimingWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (BITS * LEVELS);
+
+    // Each bucket interleaves id, deadline pairs
+    private final LongArrayList[][] buckets = new LongArrayList[LEVELS][SLOTS];
+    private final LongArrayList overflow = new LongArrayList();
+    private final Long2LongOpenHashMap deadlines = new Long2LongOpenHashMap();
+    private long now;
+
+    TimingWheel(long now) {
+        this.now = now;
+    }
+
+    int size() {
+        return this.deadlines.size();
+    }
+
+    boolean isScheduled(long id) {
+        return this.deadlines.containsKey(id);
+    }
+
+    /**
+     * Schedules {@code id} for {@code deadline}, replacing any earlier schedule.
+     * Deadlines already past fire on the next {@link #advance}.
+     */
+    void schedule(long id, long deadline) {
+        this.deadlines.put(id, deadline);
+        place(id, deadline, Math.max(deadline, this.now + 1));
+    }
+
+    void cancel(long id) {
+        this.deadlines.remove(id);
+    }
+
+    /**
+     * Moves the wheel to {@code time}, handing every id that came due to
+     * {@code expired}.
+     */
+    void advance(long time, LongConsumer expired) {
+        if (time - this.now > SPAN) {
+            // Far too many ticks to step through one at a time; start over from the saved deadlines
+            rebuild(time, expired);
+            return;
+        }
+
+        while (this.now < time) {
+            this.now++;
+
+            if ((this.now & (SPAN - 1)) == 0) {
+                LongArrayList pending = new LongArrayList(this.overflow);
+                this.overflow.clear();
+                replace(pending);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((this.now & ((1L << (BITS * level)) - 1)) == 0) {
+                    int slot = (int) ((this.now >>> (BITS * level)) & (SLOTS - 1));
+                    LongArrayList bucket = this.buckets[level][slot];
+                    if (bucket != null && !bucket.isEmpty()) {
+                        this.buckets[level][slot] = null;
+                        replace(bucket);
+                    }
+                }
+            }
+
+            int slot = (int) (this.now & (SLOTS - 1));
+            LongArrayList due = this.buckets[0][slot];
+            if (due == null || due.isEmpty()) {
+                continue;
+            }
+            this.buckets[0][slot] = null;
+            for (int i = 0; i < due.size(); i += 2) {
+                long id = due.getLong(i);
+                long deadline = due.getLong(i + 1);
+                // Skip ids cancelled or rescheduled since they were placed
+                if (this.deadlines.containsKey(id) && this.deadlines.get(id) == deadline) {
+                    this.deadlines.remove(id);
+                    expired.accept(id);
+                }
+            }
+        }
+    }
+
+    private void rebuild(long time, LongConsumer expired) {
+        Long2LongOpenHashMap live = new Long2LongOpenHashMap(this.deadlines);
+        for (LongArrayList[] level : this.buckets) {
+            Arrays.fill(level, null);
+        }
+        this.overflow.clear();
+        this.deadlines.clear();
+        this.now = time;
+
+        LongArrayList due = new LongArrayList();
+        for (Long2LongOpenHashMap.Entry entry : live.long2LongEntrySet()) {
+            if (entry.getLongValue() <= time) {
+                due.add(entry.getLongKey());
+            } else {
+                schedule(entry.getLongKey(), entry.getLongValue());
+            }
+        }
+        for (int i = 0; i < due.size(); i++) {
+            expired.accept(due.getLong(i));
+        }
+    }
+
+    private void replace(LongArrayList entries) {
+        for (int i = 0; i < entries.size(); i += 2) {
+            long id = entries.getLong(i);
+            long deadline = entries.getLong(i + 1);
+            if (this.deadlines.containsKey(id) && this.deadlines.get(id) == deadline) {
+                place(id, deadline, Math.max(deadline, this.now));
+            }
+        }
+    }
+
+    /**
+     * Puts an entry in the lowest level whose current span contains its due tick,
+     * so its bucket is reached, and cascaded or fired, no later than that tick.
+     */
+    private void place(long id, long deadline, long due) {
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = BITS * (level + 1);
+            if ((due >>> shift) == (this.now >>> shift)) {
+                int slot = (int) ((due >>> (BITS * level)) & (SLOTS - 1));
+                LongArrayList bucket = this.buckets[level][slot];
+                if (bucket == null) {
+                    bucket = this.buckets[level][slot] = new LongArrayList(4);
+                }
+                bucket.add(id);
+                bucket.add(deadline);
+                return;
+            }
+        }
+        this.overflow.add(id);
+        this.overflow.add(deadline);
+    }
+}
@@ -0,0 +1,208 @@
+package es.boopurno.gravestones.grave.store;
+
+import es.boopurno.gravestones.Gravestones;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed, reference-counted item tags shared by every grave in the
+ * {@link GraveStore}.
+ * <p>
+ * Item tags at least {@code minBytes} long when written (backpacks, filled
+ * shulker boxes) are stored once, keyed by the first 64 bits of the SHA-256 of
+ * their NBT, and graves keep only that key in place of the tag. A player dying
+ * again with the same kit, or a group dying with identical gear, then costs one
+ * copy of each tag however many graves hold it.
+ * <p>
+ * Each grave's record in the grave store holds one reference per shared tag it
+ * uses. Reference counts live in the same log as the blobs, under key 0, and
+ * {@link #flush(GraveStore)} makes them durable before the grave store, so a
+ * crash can leave a count too high but never too low. Blobs whose count drops
+ * to zero are only deleted on the flush after the grave records that released
+ * them are durable.
+ */
+public final class BlobStore {
+    private static final long COUNTS_KEY = 0;
+    private static final String TAG_KEYS = "Keys";
+    private static final String TAG_COUNTS = "Counts";
+    private static final String TAG_BLOB = "Tag";
+
+    private final GraveStore blobs;
+    private final int minBytes;
+    private final Long2IntOpenHashMap counts = new Long2IntOpenHashMap();
+    private final LongOpenHashSet released = new LongOpenHashSet();
+    private boolean countsDirty;
+
+    public BlobStore(GraveStore blobs, int minBytes) {
+        this.blobs = blobs;
+        this.minBytes = minBytes;
+
+        CompoundTag saved = blobs.load(COUNTS_KEY);
+        if (saved != null) {
+            long[] keys = saved.getLongArray(TAG_KEYS);
+            int[] counts = saved.getIntArray(TAG_COUNTS);
+            for (int i = 0; i < Math.min(keys.length, counts.length); i++) {
+                this.counts.put(keys[i], counts[i]);
+                if (counts[i] <= 0) {
+                    this.released.add(keys[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores {@code tag} if it is large enough to share and returns its key, or 0
+     * if it should stay inline. A key that is already stored is only reused if it
+     * holds an equal tag, so a truncated hash colliding never swaps one item's tag
+     * for another's. The caller must {@link #retain} the key for it to outlive
+     * the next flush.
+     */
+    public long share(CompoundTag tag) {
+        if (this.minBytes <= 0) {
+            return 0;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.minBytes);
+        try {
+            NbtIo.write(tag, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (bytes.size() < this.minBytes) {
+            return 0;
+        }
+
+        long key = keyOf(bytes.toByteArray());
+        if (!this.counts.containsKey(key)) {
+            CompoundTag blob = new CompoundTag();
+            blob.put(TAG_BLOB, tag);
+            this.blobs.save(key, blob);
+            this.counts.put(key, 0);
+            this.released.add(key);
+            this.countsDirty = true;
+        } else if (!tag.equals(resolve(key))) {
+            // A different tag already has this key; keeping this one inline is always safe
+            Gravestones.LOGGER.warn("Shared item tag key {} collides with a different tag, keeping it inline",
+                    Long.toHexString(key));
+            return 0;
+        }
+        return key;
+    }
+
+    private static long keyOf(byte[] bytes) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        long key = 0;
+        for (int i = 0; i < 8; i++) {
+            key = (key << 8) | (digest[i] & 0xFF);
+        }
+        // Key 0 holds the reference counts
+        return key == COUNTS_KEY ? 1 : key;
+    }
+
+    /**
+     * The shared tag stored under {@code key}, or null if it is missing.
+     */
+    @Nullable
+    public CompoundTag resolve(long key) {
+        CompoundTag blob = this.blobs.load(key);
+        if (blob == null) {
+            Gravestones.LOGGER.error("Shared item tag {} is missing from the blob store", Long.toHexString(key));
+            return null;
+        }
+        return blob.getCompound(TAG_BLOB);
+    }
+
+    public void retain(LongArrayList keys) {
+        for (int i = 0; i < keys.size(); i++) {
+            this.counts.addTo(keys.getLong(i), 1);
+        }
+        this.countsDirty |= !keys.isEmpty();
+    }
+
+    public void release(LongArrayList keys) {
+        for (int i = 0; i < keys.size(); i++) {
+            long key = keys.getLong(i);
+            // addTo returns the count from before the release
+            if (this.counts.containsKey(key) && this.counts.addTo(key, -1) <= 1) {
+                this.released.add(key);
+            }
+        }
+        this.countsDirty |= !keys.isEmpty();
+    }
+
+    public int size() {
+        return this.counts.size();
+    }
+
+    /**
+     * Makes blobs and counts durable, then {@code graves}, then deletes blobs
+     * that were unreferenced before this flush and still are.
+     */
+    public void flush(@Nullable GraveStore graves) {
+        LongArrayList unreferenced = new LongArrayList();
+        for (long key : this.released) {
+            if (this.counts.get(key) <= 0) {
+                unreferenced.add(key);
+            }
+        }
+        this.released.clear();
+
+        if (this.countsDirty) {
+            this.blobs.save(COUNTS_KEY, saveCounts());
+            this.countsDirty = false;
+        }
+        this.blobs.flush();
+        if (graves != null) {
+            graves.flush();
+        }
+
+        for (int i = 0; i < unreferenced.size(); i++) {
+            long key = unreferenced.getLong(i);
+            if (this.counts.get(key) <= 0) {
+                this.counts.remove(key);
+                this.blobs.delete(key);
+                this.countsDirty = true;
+            }
+        }
+    }
+
+    private CompoundTag saveCounts() {
+        long[] keys = new long[this.counts.size()];
+        int[] counts = new int[this.counts.size()];
+        int i = 0;
+        for (Long2IntMap.Entry entry : this.counts.long2IntEntrySet()) {
+            keys[i] = entry.getLongKey();
+            counts[i++] = entry.getIntValue();
+        }
+
+        CompoundTag tag = new CompoundTag();
+        tag.putLongArray(TAG_KEYS, keys);
+        tag.putIntArray(TAG_COUNTS, counts);
+        return tag;
+    }
+
+    public void close() {
+        if (this.countsDirty) {
+            this.blobs.save(COUNTS_KEY, saveCounts());
+        }
+        this.blobs.close();
+    }
+}
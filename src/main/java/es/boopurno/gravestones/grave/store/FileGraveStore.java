@@ -0,0 +1,303 @@
+package es.boopurno.gravestones.grave.store;
+
+import es.boopurno.gravestones.Gravestones;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link GraveStore} backed by one append-only log file.
+ * <p>
+ * Every save appends a record of {@code [payload length][type][grave id][crc32]}
+ * followed by the contents as uncompressed NBT, and every delete appends a
+ * record with no payload; nothing is ever rewritten in place. An in-memory index
+ * maps each grave id to the offset of its latest record, and loading a grave
+ * is an index lookup and one positional read at that offset, served from the
+ * page cache for anything recently written. Appends are not forced to disk
+ * individually: {@link #flush()} issues a single {@code force} for everything
+ * written since the last one.
+ * <p>
+ * Opening the store replays the log to rebuild the index, cutting off a torn or
+ * corrupt tail left by a crash. Whenever most of the file is superseded
+ * records, on open or on a flush, the log is compacted to only the latest
+ * record of each grave.
+ */
+public final class FileGraveStore implements GraveStore {
+    private static final byte TYPE_SAVE = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 4;
+    private static final long COMPACT_MIN_SIZE = 1L << 20;
+
+    private final Path path;
+    private FileChannel channel;
+    private final Long2LongOpenHashMap offsets = new Long2LongOpenHashMap();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private long size;
+    private long liveBytes;
+    private boolean unflushed;
+
+    private FileGraveStore(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+        this.offsets.defaultReturnValue(-1);
+    }
+
+    public static FileGraveStore open(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        FileGraveStore store = new FileGraveStore(path, openChannel(path));
+        try {
+            store.replay();
+            if (store.needsCompaction()) {
+                store.compact();
+            }
+        } catch (IOException e) {
+            store.channel.close();
+            throw e;
+        }
+        Gravestones.LOGGER.info("Opened grave store {} with {} graves ({} bytes)", path, store.offsets.size(),
+                store.size);
+        return store;
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void replay() throws IOException {
+        long fileSize = this.channel.size();
+        long position = 0;
+        CRC32 crc = new CRC32();
+
+        while (position + HEADER_SIZE <= fileSize) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE);
+            this.channel.read(head, position);
+            head.flip();
+            int length = head.getInt();
+            byte type = head.get();
+            long id = head.getLong();
+            int checksum = head.getInt();
+
+            if (length < 0 || (type != TYPE_SAVE && type != TYPE_DELETE)
+                    || position + HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            this.channel.read(payload, position + HEADER_SIZE);
+            crc.reset();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            long previous = type == TYPE_SAVE ? this.offsets.put(id, position) : this.offsets.remove(id);
+            if (previous >= 0) {
+                this.liveBytes -= recordSize(previous);
+            }
+            if (type == TYPE_SAVE) {
+                this.liveBytes += HEADER_SIZE + length;
+            }
+            position += HEADER_SIZE + length;
+        }
+
+        if (position < fileSize) {
+            Gravestones.LOGGER.warn("Grave store {} has {} bytes of incomplete or corrupt records at its end, "
+                    + "discarding them", this.path, fileSize - position);
+            this.channel.truncate(position);
+            this.channel.force(true);
+        }
+        this.size = position;
+    }
+
+    /**
+     * True once superseded records take up more than half of a log that is
+     * large enough to be worth rewriting. Right after a compaction the whole log
+     * is live, so the next one waits until as much again has been appended.
+     */
+    private boolean needsCompaction() {
+        return this.size > COMPACT_MIN_SIZE && this.liveBytes < this.size / 2;
+    }
+
+    /**
+     * Rewrites the log with only the latest record of each grave, swaps it in
+     * atomically and moves the index over to the new offsets. Everything
+     * appended so far must be flushed first, as the old file is then replaced.
+     * If the swap fails, the old file is reopened and the index left as it was.
+     */
+    private void compact() throws IOException {
+        Path temp = this.path.resolveSibling(this.path.getFileName() + ".compact");
+        Long2LongOpenHashMap compacted = new Long2LongOpenHashMap(this.offsets.size());
+        long written = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Long2LongMap.Entry entry : this.offsets.long2LongEntrySet()) {
+                long offset = entry.getLongValue();
+                long end = offset + recordSize(offset);
+                compacted.put(entry.getLongKey(), written);
+                for (long position = offset; position < end; ) {
+                    long transferred = this.channel.transferTo(position, end - position, out);
+                    if (transferred <= 0) {
+                        throw new EOFException("Record of grave " + entry.getLongKey() + " ends past the log");
+                    }
+                    position += transferred;
+                    written += transferred;
+                }
+            }
+            out.force(true);
+        }
+
+        this.channel.close();
+        try {
+            Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            this.channel = openChannel(this.path);
+        }
+        Gravestones.LOGGER.info("Compacted grave store {} from {} to {} bytes", this.path, this.size, written);
+        this.offsets.putAll(compacted);
+        this.size = written;
+        this.liveBytes = written;
+    }
+
+    private long recordSize(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        return HEADER_SIZE + length.getInt(0);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of grave store at " + position);
+            }
+            position += read;
+        }
+    }
+
+    @Nullable
+    @Override
+    public CompoundTag load(long graveId) {
+        long offset = this.offsets.get(graveId);
+        if (offset < 0) {
+            return null;
+        }
+
+        try {
+            ByteBuffer payload = ByteBuffer.allocate((int) (recordSize(offset) - HEADER_SIZE));
+            readFully(payload, offset + HEADER_SIZE);
+            return NbtIo.read(new DataInputStream(new ByteArrayInputStream(payload.array())));
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to read grave {} from {}: {}", graveId, this.path, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void save(long graveId, CompoundTag contents) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try {
+            NbtIo.write(contents, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long offset = append(TYPE_SAVE, graveId, bytes.toByteArray());
+
+        long previous = this.offsets.put(graveId, offset);
+        if (previous >= 0) {
+            this.liveBytes -= safeRecordSize(previous);
+        }
+        this.liveBytes += this.size - offset;
+    }
+
+    @Override
+    public void delete(long graveId) {
+        long previous = this.offsets.remove(graveId);
+        if (previous < 0) {
+            return;
+        }
+        this.liveBytes -= safeRecordSize(previous);
+        append(TYPE_DELETE, graveId, new byte[0]);
+    }
+
+    private long append(byte type, long graveId, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        this.header.clear();
+        this.header.putInt(payload.length).put(type).putLong(graveId).putInt((int) crc.getValue());
+        this.header.flip();
+
+        long offset = this.size;
+        try {
+            long position = offset;
+            while (this.header.hasRemaining()) {
+                position += this.channel.write(this.header, position);
+            }
+            ByteBuffer body = ByteBuffer.wrap(payload);
+            while (body.hasRemaining()) {
+                position += this.channel.write(body, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to grave store " + this.path, e);
+        }
+        this.size = offset + HEADER_SIZE + payload.length;
+        this.unflushed = true;
+        return offset;
+    }
+
+    private long safeRecordSize(long offset) {
+        try {
+            return recordSize(offset);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (!this.unflushed) {
+            return;
+        }
+        try {
+            this.channel.force(false);
+            this.unflushed = false;
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to flush grave store {}: {}", this.path, e.getMessage());
+            return;
+        }
+
+        if (needsCompaction()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                Gravestones.LOGGER.error("Failed to compact grave store {}: {}", this.path, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to close grave store {}: {}", this.path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package es.boopurno.gravestones.grave.store;
+
+import net.minecraft.nbt.CompoundTag;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Where grave contents live when they are kept out of the chunk's block entity
+ * data. The block entity only records its grave id; the contents are saved and
+ * looked up here by that id.
+ * <p>
+ * Stores are only used from the server thread. {@link #save} and
+ * {@link #delete} need not be durable until {@link #flush} returns.
+ */
+public interface GraveStore extends AutoCloseable {
+    /**
+     * The contents last saved for a grave, or null if there are none.
+     */
+    @Nullable
+    CompoundTag load(long graveId);
+
+    void save(long graveId, CompoundTag contents);
+
+    void delete(long graveId);
+
+    /**
+     * Makes every save and delete so far durable.
+     */
+    void flush();
+
+    @Override
+    void close();
+}
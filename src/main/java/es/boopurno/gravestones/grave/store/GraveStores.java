@@ -0,0 +1,134 @@
+package es.boopurno.gravestones.grave.store;
+
+import es.boopurno.gravestones.Gravestones;
+import es.boopurno.gravestones.config.GravestoneConfig;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.storage.LevelResource;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.level.LevelEvent;
+import net.minecraftforge.event.server.ServerAboutToStartEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Owns the server's {@link GraveStore} for as long as the server runs.
+ * <p>
+ * The store is opened before any level loads, as set by
+ * {@link GravestoneConfig#CONTENT_STORE}, together with the {@link BlobStore}
+ * for item tags its graves share, and both are flushed at the end of every tick
+ * and whenever a level saves, so all contents written during a tick share one
+ * fsync. With the store set to {@code CHUNK}, existing store files are still
+ * opened so graves saved to them earlier can be read back into their chunks.
+ */
+@Mod.EventBusSubscriber(modid = Gravestones.MODID)
+public class GraveStores {
+    @Nullable
+    private static GraveStore store;
+    @Nullable
+    private static BlobStore blobs;
+    private static boolean offChunk;
+
+    @SubscribeEvent
+    public static void onServerAboutToStart(ServerAboutToStartEvent event) {
+        GravestoneConfig.ContentStore mode = GravestoneConfig.CONTENT_STORE.get();
+        Path directory = event.getServer().getWorldPath(LevelResource.ROOT).resolve(Gravestones.MODID);
+        Path file = directory.resolve("graves.log");
+        Path blobFile = directory.resolve("blobs.log");
+        int sharedTagMinBytes = GravestoneConfig.SHARED_TAG_MIN_BYTES.get();
+
+        if (mode == GravestoneConfig.ContentStore.FILE || Files.exists(file)) {
+            store = openFile(file);
+            GraveStore blobFileStore = store != null ? openFile(blobFile) : null;
+            if (blobFileStore != null) {
+                // With CHUNK, shared tags are only read back as graves move into their chunks
+                blobs = new BlobStore(blobFileStore,
+                        mode == GravestoneConfig.ContentStore.CHUNK ? 0 : sharedTagMinBytes);
+            } else if (store != null) {
+                store.close();
+                store = null;
+            }
+        }
+        offChunk = store != null && mode != GravestoneConfig.ContentStore.CHUNK;
+    }
+
+    @Nullable
+    private static GraveStore openFile(Path file) {
+        try {
+            return FileGraveStore.open(file);
+        } catch (IOException e) {
+            Gravestones.LOGGER.error("Failed to open grave store {}, saving gravestone contents with their chunks: {}",
+                    file, e.getMessage());
+            return null;
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.END) {
+            flush();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onLevelSave(LevelEvent.Save event) {
+        if (!event.getLevel().isClientSide()) {
+            flush();
+        }
+    }
+
+    /**
+     * Makes everything saved to the stores so far durable, blobs before the
+     * graves that reference them.
+     */
+    public static void flush() {
+        if (blobs != null) {
+            blobs.flush(store);
+        } else if (store != null) {
+            store.flush();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        if (blobs != null) {
+            blobs.close();
+            blobs = null;
+        }
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+        offChunk = false;
+    }
+
+    /**
+     * The running server's store, or null if there is none to read from.
+     */
+    @Nullable
+    public static GraveStore get() {
+        return store;
+    }
+
+    /**
+     * The shared item tags of the running server's store, or null if there is no
+     * store.
+     */
+    @Nullable
+    public static BlobStore blobs() {
+        return blobs;
+    }
+
+    /**
+     * True if graves should save their contents to {@link #get()} rather than
+     * with their chunk.
+     */
+    public static boolean isOffChunk() {
+        return offChunk;
+    }
+}
@@ -0,0 +1,41 @@
+package es.boopurno.gravestones.grave.store;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.CompoundTag;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link GraveStore} that only keeps contents in memory, for tests that
+ * construct it directly. Nothing survives a restart, so it is never selectable
+ * as a server's content store: graves saved to it would mark their chunks as
+ * stored while the contents only lived in RAM.
+ */
+public final class MemoryGraveStore implements GraveStore {
+    private final Long2ObjectOpenHashMap<CompoundTag> contents = new Long2ObjectOpenHashMap<>();
+
+    @Nullable
+    @Override
+    public CompoundTag load(long graveId) {
+        CompoundTag tag = this.contents.get(graveId);
+        return tag == null ? null : tag.copy();
+    }
+
+    @Override
+    public void save(long graveId, CompoundTag contents) {
+        this.contents.put(graveId, contents.copy());
+    }
+
+    @Override
+    public void delete(long graveId) {
+        this.contents.remove(graveId);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        this.contents.clear();
+    }
+}
@@ -0,0 +1,19 @@
+package es.boopurno.gravestones.integration;
+
+import net.minecraft.world.entity.player.Player;
+import net.minecraftforge.items.IItemHandlerModifiable;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Typed view of the Cosmetic Armor Reworked API, with a no-op {@link #NONE}
+ * used when the mod is absent or could not be linked.
+ */
+public interface CosmeticArmorAccess {
+    CosmeticArmorAccess NONE = player -> null;
+
+    /**
+     * The player's cosmetic armor slots, or {@code null} if they have none.
+     */
+    @Nullable
+    IItemHandlerModifiable getStacks(Player player);
+}
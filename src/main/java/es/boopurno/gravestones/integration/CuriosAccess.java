@@ -0,0 +1,23 @@
+package es.boopurno.gravestones.integration;
+
+import net.minecraft.world.entity.player.Player;
+import net.minecraftforge.items.IItemHandlerModifiable;
+
+import java.util.Map;
+
+/**
+ * Typed view of the parts of the Curios API the gravestone uses.
+ * <p>
+ * {@link #NONE} is used when Curios is absent or could not be linked, so call
+ * sites never need to check whether the mod is loaded.
+ */
+public interface CuriosAccess {
+    CuriosAccess NONE = player -> Map.of();
+
+    /**
+     * The stack handler of each of the player's curio slot types, keyed by slot
+     * identifier in Curios' own iteration order. Empty if the player has no
+     * curios inventory.
+     */
+    Map<String, IItemHandlerModifiable> getStacks(Player player);
+}
@@ -0,0 +1,101 @@
+package es.boopurno.gravestones.integration;
+
+import es.boopurno.gravestones.grave.GraveSlotGroup;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.items.IItemHandlerModifiable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One pass over a player's Curios inventory, taken at death.
+ * <p>
+ * Records every occupied curio slot (slot type, index within that type and the
+ * stack) plus the total slot count, so sizing, counting, storing and item loss
+ * all see the same view. The player's slots are left untouched until
+ * {@link #clearSource()}, which empties exactly the recorded slots once.
+ */
+public final class CuriosSnapshot implements GraveSlotGroup.Capture {
+    public static final CuriosSnapshot EMPTY = new CuriosSnapshot(List.of(), 0);
+
+    private final List<Entry> entries;
+    private final int slotCount;
+
+    private record Entry(String slotId, int slotIndex, IItemHandlerModifiable handler, ItemStack stack) {
+    }
+
+    private CuriosSnapshot(List<Entry> entries, int slotCount) {
+        this.entries = entries;
+        this.slotCount = slotCount;
+    }
+
+    public static CuriosSnapshot capture(Player player) {
+        Map<String, IItemHandlerModifiable> handlers = CuriosIntegration.access().getStacks(player);
+        if (handlers.isEmpty()) {
+            return EMPTY;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        int slotCount = 0;
+
+        for (Map.Entry<String, IItemHandlerModifiable> slotType : handlers.entrySet()) {
+            IItemHandlerModifiable handler = slotType.getValue();
+            int slots = handler.getSlots();
+            slotCount += slots;
+
+            for (int i = 0; i < slots; i++) {
+                ItemStack stack = handler.getStackInSlot(i);
+                if (!stack.isEmpty()) {
+                    entries.add(new Entry(slotType.getKey(), i, handler, stack));
+                }
+            }
+        }
+
+        return new CuriosSnapshot(entries, slotCount);
+    }
+
+    /**
+     * Number of occupied curio slots, which is the number of grave slots needed.
+     */
+    @Override
+    public int size() {
+        return this.entries.size();
+    }
+
+    public boolean isEmpty() {
+        return this.entries.isEmpty();
+    }
+
+    /**
+     * Total curio slots the player had, occupied or not.
+     */
+    public int getSlotCount() {
+        return this.slotCount;
+    }
+
+    public String getSlotId(int index) {
+        return this.entries.get(index).slotId();
+    }
+
+    public int getSlotIndex(int index) {
+        return this.entries.get(index).slotIndex();
+    }
+
+    @Override
+    public ItemStack get(int index) {
+        return this.entries.get(index).stack();
+    }
+
+    /**
+     * Empties every recorded slot in the player's Curios inventory. The stacks
+     * themselves are not copied; whoever read them through {@link #get} now owns them.
+     */
+    @Override
+    public void clearSource() {
+        for (Entry entry : this.entries) {
+            entry.handler().setStackInSlot(entry.slotIndex(), ItemStack.EMPTY);
+        }
+    }
+}